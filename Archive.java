@@ -1,28 +1,387 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Entry point for the spellbook archive system.
  * Continuously reads user input and delegates command handling to {@code CommandHandler}.
+ *
+ * <p>Options:
+ * <ul>
+ *   <li>{@code --batch <file> [--quiet]} replays a command file at full speed instead of reading user input</li>
+ *   <li>{@code --serve <port>} serves the command language over TCP instead of reading user input</li>
+ *   <li>{@code --journal <file>} replays the rental journal on startup and journals every change made afterwards</li>
+ *   <li>{@code --columnar} stores spellbooks in off-heap columns, for catalogues too large to keep as objects</li>
+ *   <li>{@code --snapshot <file>} loads the snapshot on startup, writes a new one in the background as the
+ *       journal grows, and writes a final one on exit</li>
+ *   <li>{@code --stats <file> [--stats-interval <seconds>]} writes the {@code STATS} report to the file every
+ *       interval (60 seconds unless given), and a final one on exit</li>
+ * </ul>
  */
 public class Archive {
+  private static final int BATCH_READ_BUFFER_SIZE = 1 << 16;
+  private static final long SNAPSHOT_INTERVAL_BYTES = 64L << 20;  // Snapshot after every 64 MiB of journal
+  private static final int SERVER_BACKLOG = 4096;  // Room for thousands of clients connecting at once
+  private static final int CONNECTION_READ_BUFFER_SIZE = 1 << 13;
+  private static final long CONNECTION_DRAIN_SECONDS = 10;  // Longest wait for commands in progress on shutdown
+  private static final long DEFAULT_STATS_INTERVAL_SECONDS = 60;
+  private static final String END_OF_RESPONSE = ".";  // Line sent after each command's output in server mode
+
+  private final CommandOutput out;
+  private final CommandHandler cmdHandler;
+  private RentalJournal journal;  // Null unless started with --journal
+  private SnapshotWriter snapshotWriter;  // Null unless started with --snapshot
+  private StatsDumper statsDumper;  // Null unless started with --stats
+  private volatile ServerSocket serverSocket;  // Null unless serving
+  private volatile ExecutorService connections;
+  private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+  private final AtomicLong lastSnapshotOffset = new AtomicLong();
+  private final ReentrantLock snapshotLock = new ReentrantLock();  // Held while a snapshot is captured and handed off
+  private final AtomicBoolean isShutDown = new AtomicBoolean();
+
+  private Archive(SpellbookCatalogue catalogue){
+    this.out = new CommandOutput(System.out, this::commitJournal);
+    this.cmdHandler = new CommandHandler(out, catalogue);
+  }
 
   /**
    * Starts the command-line interface for the Hogwarts Archive system.
    * Accepts user input until a termination command is issued.
+   *
+   * @param args optional {@code --batch <file> [--quiet]} or {@code --serve <port>}, {@code --journal <file>},
+   *             {@code --snapshot <file>}, {@code --stats <file> [--stats-interval <seconds>]} and {@code --columnar}
    */
   public static void main(String[] args){
+    String batchFile = null;
+    String journalFile = null;
+    String snapshotFile = null;
+    String statsFile = null;
+    long statsIntervalSeconds = DEFAULT_STATS_INTERVAL_SECONDS;
+    int serverPort = -1;
+    boolean quiet = false;
+    boolean columnar = false;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--batch" -> batchFile = args[++i];
+        case "--journal" -> journalFile = args[++i];
+        case "--snapshot" -> snapshotFile = args[++i];
+        case "--stats" -> statsFile = args[++i];
+        case "--stats-interval" -> statsIntervalSeconds = parseSeconds(args[++i]);
+        case "--serve" -> serverPort = Integer.parseInt(args[++i]);
+        case "--quiet" -> quiet = true;
+        case "--columnar" -> columnar = true;
+        default -> { }  // Unknown options are ignored
+      }
+    }
+
+    Archive archive = new Archive(columnar ? new ColumnarCatalogue() : new HeapCatalogue());
+    if (statsIntervalSeconds <= 0) {
+      archive.out.println("Invalid stats interval, expected a whole number of seconds above 0.");
+      archive.out.flush();
+      return;
+    }
+    if (!archive.restoreState(snapshotFile, journalFile)) return;
+    if (statsFile != null) {
+      archive.statsDumper = StatsDumper.start(archive.cmdHandler.getStats(), new File(statsFile), statsIntervalSeconds);
+    }
+
+    try {
+      if (serverPort >= 0) {
+        archive.runServer(serverPort);
+      } else if (batchFile != null) {
+        archive.cmdHandler.setSuppressSuccess(quiet);
+        archive.runBatch(batchFile);
+      } else {
+        archive.runInteractive();
+      }
+    } finally {
+      archive.shutdown();
+    }
+  }
+
+  // Returns 0 for a value that is not a whole number, so it is rejected like any other interval below 1
+  private static long parseSeconds(String value){
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException _) {
+      return 0;
+    }
+  }
+
+  // Loads the snapshot, then replays only the journal events written after it was taken
+  private boolean restoreState(String snapshotFile, String journalFile){
+    long journalOffset = 0;
+
+    if (snapshotFile != null) {
+      File file = new File(snapshotFile);
+      snapshotWriter = new SnapshotWriter(file);
+      if (file.exists()) {
+        try {
+          ArchiveSnapshot snapshot = ArchiveSnapshot.readFrom(file);
+          cmdHandler.restoreSnapshot(snapshot);
+          journalOffset = snapshot.getJournalOffset();
+        } catch (IOException e) {
+          out.println("Unable to load snapshot " + snapshotFile + ".");
+          out.flush();
+          return false;
+        }
+      }
+    }
+
+    if (journalFile != null) {
+      try {
+        journal = RentalJournal.openAndReplay(new File(journalFile), cmdHandler, journalOffset);
+        cmdHandler.setJournal(journal);
+        lastSnapshotOffset.set(journalOffset);
+      } catch (IOException e) {
+        out.println("Unable to open journal " + journalFile + ".");
+        out.flush();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void runInteractive(){
     Scanner userScanner = new Scanner(System.in);
-    CommandHandler cmdHandler = new CommandHandler();
 
-    while (true){
-      System.out.print("user: ");
-      String userInput = userScanner.nextLine();
-      boolean shouldExit = cmdHandler.handleCommand(userInput);
-      if (shouldExit) break;
+    try {
+      while (true){
+        out.print("user: ");
+        out.flush();  // Previous command's output and the prompt are written together before waiting for input
+        String userInput = userScanner.nextLine();
+        boolean shouldExit = cmdHandler.handleCommand(userInput);
+        if (shouldExit) break;
 
-      System.out.println();  // 1 line space between each command
+        maybeSnapshot();
+        out.println();  // 1 line space between each command
+      }
+    } finally {
+      out.flush();  // Also keeps output printed before a failing command
     }
 
   }
-}
 
+  /**
+   * Replays every command in a file without prompts or blank lines between commands, then prints
+   * how many commands ran and how fast. Stops early at an {@code EXIT} command.
+   *
+   * @param filePath the command file, one command per line
+   */
+  private void runBatch(String filePath){
+    long commandCount = 0;
+    long startTime = System.nanoTime();
+
+    try (BufferedReader commandReader = new BufferedReader(new FileReader(filePath), BATCH_READ_BUFFER_SIZE)) {
+      String userInput;
+      while ((userInput = commandReader.readLine()) != null) {
+        commandCount++;
+        if (cmdHandler.handleCommand(userInput)) break;
+
+        maybeSnapshot();  // Output is written in chunks as it builds up, one journal fsync covering each
+      }
+    } catch (FileNotFoundException e) {
+      out.println("No such file.");
+      out.flush();
+      return;
+    } catch (IOException e) {
+      out.println("Unable to read " + filePath + ".");  // Summary below still covers the commands replayed
+    } finally {
+      out.flush();
+    }
+
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    long commandsPerSecond = elapsedSeconds > 0 ? Math.round(commandCount / elapsedSeconds) : commandCount;
+    out.println("Replayed " + commandCount + " commands in " + String.format("%.3f", elapsedSeconds) + "s ("
+            + commandsPerSecond + " commands/s).");
+    out.flush();
+  }
+
+  /**
+   * Serves the command language to TCP clients until the process is stopped, with one virtual thread
+   * per connection. Each client sends one command per line and may pipeline many commands without
+   * waiting; every command's output is followed by a line containing only {@code "."}. A connection's
+   * output is buffered and written once no more of its commands are waiting to be read. {@code EXIT}
+   * closes the connection, and a malformed command closes it too instead of stopping the server.
+   *
+   * @param port the port to listen on, or 0 for any free port
+   */
+  private void runServer(int port){
+    connections = Executors.newVirtualThreadPerTaskExecutor();
+
+    try (ServerSocket listener = new ServerSocket(port, SERVER_BACKLOG)) {
+      serverSocket = listener;
+      Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));  // Stopping the server still saves state
+      out.println("Serving on port " + listener.getLocalPort() + ".");
+      out.flush();
+
+      while (true) {
+        Socket socket = listener.accept();
+        openSockets.add(socket);
+        connections.submit(() -> serveConnection(socket));
+      }
+    } catch (IOException e) {
+      if (serverSocket == null || !serverSocket.isClosed()) {  // Closed by the shutdown hook, which is not an error
+        out.println("Unable to serve on port " + port + ".");
+        out.flush();
+      }
+    } finally {
+      connections.shutdown();  // Open connections are served until their clients disconnect
+    }
+  }
+
+  private void serveConnection(Socket socket){
+    try (socket;
+         BufferedReader commandReader = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), CONNECTION_READ_BUFFER_SIZE)) {
+      socket.setTcpNoDelay(true);  // Replies are already batched, so send them without waiting
+      CommandOutput connectionOut = new CommandOutput(
+              new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), this::commitJournal);
+      CommandHandler connectionHandler = new CommandHandler(cmdHandler, connectionOut);
+
+      String userInput;
+      while ((userInput = commandReader.readLine()) != null) {
+        boolean shouldExit;
+        try {
+          shouldExit = connectionHandler.handleCommand(userInput);
+        } catch (RuntimeException _) {
+          connectionOut.flush();  // Output of earlier commands still reaches the client
+          return;  // Malformed command, the same input would end an interactive session
+        }
+        connectionOut.println(END_OF_RESPONSE);
+
+        // Pipelined commands already received are handled before replying, so their output goes out together
+        if (shouldExit || !commandReader.ready()) {
+          connectionOut.flush();
+        }
+        if (shouldExit) return;
+
+        maybeSnapshot();
+      }
+      connectionOut.flush();
+    } catch (IOException | UncheckedIOException _) {
+      // Client disconnected, nothing left to reply to
+    } finally {
+      openSockets.remove(socket);
+    }
+  }
+
+  // Run before any output is written, so journaled changes are durable before output acknowledging them
+  // is shown. Concurrent connections share each journal fsync
+  private void commitJournal(){
+    if (journal != null) {
+      try {
+        journal.commit();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // Starts a background snapshot once enough journal has built up since the last one. Run after every
+  // command on every desk, so the usual case is one comparison without taking any lock
+  private void maybeSnapshot(){
+    if (snapshotWriter == null || journal == null) return;
+    if (!isSnapshotDue()) return;
+    if (!snapshotLock.tryLock()) return;  // Another desk is already taking this snapshot
+
+    try {
+      if (!isSnapshotDue()) return;  // Taken by another desk since the check above
+
+      // The offset is read while the capture holds every desk off, so it matches the captured state exactly
+      ArchiveSnapshot snapshot = cmdHandler.captureSnapshot();
+      try {
+        journal.commit();  // A snapshot must never cover journal events that could still be lost
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (snapshotWriter.writeInBackground(snapshot)) {
+        lastSnapshotOffset.set(snapshot.getJournalOffset());
+      }
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  private boolean isSnapshotDue(){
+    return journal.getAppendedBytes() - lastSnapshotOffset.get() >= SNAPSHOT_INTERVAL_BYTES;
+  }
+
+  private void shutdown(){
+    stopServing();  // First, so no desk changes anything after the final snapshot is captured
+    saveState();
+  }
+
+  // Stops accepting connections and closes the open ones, waiting for commands in progress to finish
+  private void stopServing(){
+    if (serverSocket == null) return;
+
+    try {
+      serverSocket.close();
+    } catch (IOException _) {
+      // Already closed, so nothing more is accepted either way
+    }
+    connections.shutdownNow();
+    for (Socket socket : openSockets) {
+      try {
+        socket.close();  // Ends a connection blocked reading its next command
+      } catch (IOException _) {
+        // Already closed by its client
+      }
+    }
+    try {
+      connections.awaitTermination(CONNECTION_DRAIN_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void saveState(){
+    if (!isShutDown.compareAndSet(false, true)) return;  // Also run by the server's shutdown hook
+
+    snapshotLock.lock();  // Waits for a background snapshot a desk is still handing off
+    try {
+      ArchiveSnapshot snapshot = snapshotWriter != null ? cmdHandler.captureSnapshot() : null;
+      if (journal != null) {
+        journal.commit();  // Covers everything the final snapshot captured
+      }
+      if (snapshotWriter != null) {
+        snapshotWriter.writeFinal(snapshot);
+        snapshotWriter.close();
+      }
+      if (journal != null) {
+        journal.close();
+      }
+    } catch (IOException e) {
+      System.err.println("Unable to save archive state: " + e.getMessage());
+    } finally {
+      snapshotLock.unlock();
+    }
+
+    if (statsDumper != null) {
+      try {
+        statsDumper.close();  // Writes the final report
+      } catch (IOException e) {
+        System.err.println("Unable to write stats: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,278 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of everything held by a {@code CommandHandler}: every spellbook with its renting
+ * student and history, every student with their current spellbooks and history, and the next student
+ * number to hand out. Snapshots let a restart load the whole archive in one sequential read and only
+ * replay the journal events written after {@link #getJournalOffset()}.
+ *
+ * <p>A snapshot is captured on the command thread by copying ids out of the live objects, and can then
+ * be written from any thread while commands carry on. On disk, titles, inventors, types and names are
+ * written once into a string table and referenced by index, since many copies share the same strings.
+ */
+public class ArchiveSnapshot {
+  private static final int MAGIC = 0x48534E32;  // "HSN2", strings as length-prefixed UTF-8 since version 2
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final int nextStudentId;
+  private final long journalOffset;
+
+  private final int[] serialNumbers;
+  private final String[] titles;
+  private final String[] inventors;
+  private final String[] types;
+  private final int[] studentsRenting;
+  private final int[][] spellbookHistories;
+
+  private final int[] studentNumbers;
+  private final String[] names;
+  private final int[][] currentSpellbooks;
+  private final int[][] studentHistories;
+
+  private ArchiveSnapshot(int nextStudentId, long journalOffset, int spellbookCount, int studentCount){
+    this.nextStudentId = nextStudentId;
+    this.journalOffset = journalOffset;
+    this.serialNumbers = new int[spellbookCount];
+    this.titles = new String[spellbookCount];
+    this.inventors = new String[spellbookCount];
+    this.types = new String[spellbookCount];
+    this.studentsRenting = new int[spellbookCount];
+    this.spellbookHistories = new int[spellbookCount][];
+    this.studentNumbers = new int[studentCount];
+    this.names = new String[studentCount];
+    this.currentSpellbooks = new int[studentCount][];
+    this.studentHistories = new int[studentCount][];
+  }
+
+  /**
+   * Copies the given archive state. Must be called while no command is changing that state.
+   *
+   * @param spellbooks    every spellbook in the system
+   * @param students      every student in the system
+   * @param nextStudentId the student number the next new student will receive
+   * @param journalOffset journal length covered by this snapshot, or 0 if there is no journal
+   * @return the captured snapshot
+   */
+  public static ArchiveSnapshot capture(Collection<SpellBook> spellbooks, Collection<Student> students,
+                                        int nextStudentId, long journalOffset){
+    ArchiveSnapshot snapshot = new ArchiveSnapshot(nextStudentId, journalOffset, spellbooks.size(), students.size());
+
+    int i = 0;
+    for (SpellBook sb : spellbooks) {
+      snapshot.serialNumbers[i] = sb.getSerialNumber();
+      snapshot.titles[i] = sb.getTitle();
+      snapshot.inventors[i] = sb.getInventor();
+      snapshot.types[i] = sb.getType();
+      snapshot.studentsRenting[i] = sb.getStudentRenting();
+      snapshot.spellbookHistories[i] = sb.getHistory().toArray();
+      i++;
+    }
+
+    List<Student> sortedStudents = new ArrayList<>(students);
+    sortedStudents.sort(Comparator.comparingInt(Student::getNumber));  // Repeatable file contents
+
+    i = 0;
+    for (Student student : sortedStudents) {
+      snapshot.studentNumbers[i] = student.getNumber();
+      snapshot.names[i] = student.getName();
+      snapshot.currentSpellbooks[i] = student.getCurrentSpellbooks().toArray();
+      snapshot.studentHistories[i] = student.getHistory().toArray();
+      i++;
+    }
+    return snapshot;
+  }
+
+  public int getNextStudentId() {
+    return nextStudentId;
+  }
+
+  /**
+   * Returns how much of the journal this snapshot already includes.
+   *
+   * @return the journal length in bytes when the snapshot was captured
+   */
+  public long getJournalOffset() {
+    return journalOffset;
+  }
+
+  /**
+   * Rebuilds the captured spellbooks, including renting status and history.
+   *
+   * @return new spellbook objects in serial number order
+   */
+  public List<SpellBook> toSpellbooks() {
+    List<SpellBook> spellbooks = new ArrayList<>(serialNumbers.length);
+    for (int i = 0; i < serialNumbers.length; i++) {
+      SpellBook sb = new SpellBook(serialNumbers[i], titles[i], inventors[i], types[i]);
+      sb.setStudentRenting(studentsRenting[i]);
+      for (int studentNumber : spellbookHistories[i]) {
+        sb.addToHistory(studentNumber);
+      }
+      spellbooks.add(sb);
+    }
+    return spellbooks;
+  }
+
+  /**
+   * Rebuilds the captured students, including current spellbooks and history.
+   *
+   * @return new student objects in student number order
+   */
+  public List<Student> toStudents() {
+    List<Student> students = new ArrayList<>(studentNumbers.length);
+    for (int i = 0; i < studentNumbers.length; i++) {
+      Student student = new Student(studentNumbers[i], names[i]);
+      for (int serialNumber : currentSpellbooks[i]) {
+        student.addToCurrentSpellbooks(serialNumber);
+      }
+      for (int serialNumber : studentHistories[i]) {
+        student.addToHistory(serialNumber);
+      }
+      students.add(student);
+    }
+    return students;
+  }
+
+  /**
+   * Writes the snapshot to a temporary file beside the target and atomically renames it into place,
+   * so a crash mid-write leaves the previous snapshot intact.
+   *
+   * @param file the snapshot file
+   * @throws IOException if the snapshot cannot be written
+   */
+  public void writeTo(File file) throws IOException {
+    File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+    try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE))) {
+      out.writeInt(MAGIC);
+      out.writeInt(nextStudentId);
+      out.writeLong(journalOffset);
+      out.writeInt(serialNumbers.length);
+      out.writeInt(studentNumbers.length);
+
+      // String table first, so the records below are fixed-size ids
+      Map<String, Integer> stringIds = new HashMap<>();
+      List<String> stringTable = new ArrayList<>();
+      for (String[] column : List.of(titles, inventors, types, names)) {
+        for (String value : column) {
+          stringIds.computeIfAbsent(value, k -> {
+            stringTable.add(k);
+            return stringTable.size() - 1;
+          });
+        }
+      }
+      out.writeInt(stringTable.size());
+      for (String value : stringTable) {
+        writeString(out, value);
+      }
+
+      for (int i = 0; i < serialNumbers.length; i++) {
+        out.writeInt(serialNumbers[i]);
+        out.writeInt(stringIds.get(titles[i]));
+        out.writeInt(stringIds.get(inventors[i]));
+        out.writeInt(stringIds.get(types[i]));
+        out.writeInt(studentsRenting[i]);
+        writeInts(out, spellbookHistories[i]);
+      }
+
+      for (int i = 0; i < studentNumbers.length; i++) {
+        out.writeInt(studentNumbers[i]);
+        out.writeInt(stringIds.get(names[i]));
+        writeInts(out, currentSpellbooks[i]);
+        writeInts(out, studentHistories[i]);
+      }
+
+      out.flush();
+      fileOut.getFD().sync();
+    }
+
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a snapshot with one sequential pass over the file.
+   *
+   * @param file the snapshot file
+   * @return the snapshot
+   * @throws IOException if the file cannot be read or is not a snapshot
+   */
+  public static ArchiveSnapshot readFrom(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not an archive snapshot.");
+      }
+      int nextStudentId = in.readInt();
+      long journalOffset = in.readLong();
+      int spellbookCount = in.readInt();
+      int studentCount = in.readInt();
+      ArchiveSnapshot snapshot = new ArchiveSnapshot(nextStudentId, journalOffset, spellbookCount, studentCount);
+
+      String[] stringTable = new String[in.readInt()];
+      for (int i = 0; i < stringTable.length; i++) {
+        stringTable[i] = readString(in);
+      }
+
+      for (int i = 0; i < spellbookCount; i++) {
+        snapshot.serialNumbers[i] = in.readInt();
+        snapshot.titles[i] = stringTable[in.readInt()];
+        snapshot.inventors[i] = stringTable[in.readInt()];
+        snapshot.types[i] = stringTable[in.readInt()];
+        snapshot.studentsRenting[i] = in.readInt();
+        snapshot.spellbookHistories[i] = readInts(in);
+      }
+
+      for (int i = 0; i < studentCount; i++) {
+        snapshot.studentNumbers[i] = in.readInt();
+        snapshot.names[i] = stringTable[in.readInt()];
+        snapshot.currentSpellbooks[i] = readInts(in);
+        snapshot.studentHistories[i] = readInts(in);
+      }
+      return snapshot;
+    }
+  }
+
+  // Same encoding as the journal, since writeUTF rejects strings over 64 KiB and uses modified UTF-8
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in) throws IOException {
+    int[] values = new int[in.readInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+}
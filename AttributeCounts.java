@@ -0,0 +1,39 @@
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Live, alphabetically sorted reference counts of spellbook attribute values.
+ * Counts are updated as spellbooks enter or leave the system, so reading them never needs to
+ * rebuild, hash or sort anything.
+ */
+public class AttributeCounts {
+  private final TreeMap<String, Integer> countsByValue;
+  private final SortedMap<String, Integer> countsView;
+
+  /**
+   * Constructs an empty {@code AttributeCounts}.
+   */
+  public AttributeCounts(){
+    this.countsByValue = new TreeMap<>();
+    this.countsView = Collections.unmodifiableSortedMap(countsByValue);
+  }
+
+  /**
+   * Increments the count for the given value, adding it if this is its first occurrence.
+   *
+   * @param value the attribute value, eg. a spellbook's type
+   */
+  public void add(String value){
+    countsByValue.merge(value, 1, Integer::sum);
+  }
+
+  /**
+   * Returns a read-only view of every value and its count, sorted alphabetically by value.
+   *
+   * @return the live counts keyed by attribute value
+   */
+  public SortedMap<String, Integer> counts(){
+    return countsView;
+  }
+}
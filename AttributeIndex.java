@@ -0,0 +1,55 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Secondary index from a spellbook attribute (such as type or inventor) to the spellbooks holding it.
+ * Keys are case-folded so lookups match the case-insensitive behaviour of the {@code TYPE} and
+ * {@code INVENTOR} commands, and matches are kept in serial number order.
+ */
+public class AttributeIndex {
+  private final Function<SpellBook, String> extractor;
+  private final Map<String, SpellbookStore> serialsByAttribute;
+
+  /**
+   * Constructs an empty {@code AttributeIndex} over the given attribute.
+   *
+   * @param extractor function returning the indexed attribute of a spellbook, eg. {@code SpellBook::getType}
+   */
+  public AttributeIndex(Function<SpellBook, String> extractor){
+    this.extractor = extractor;
+    this.serialsByAttribute = new HashMap<>();
+  }
+
+  /**
+   * Adds a spellbook to the index under its attribute value.
+   *
+   * @param sb the spellbook being added to the system
+   */
+  public void add(SpellBook sb){
+    String key = foldCase(extractor.apply(sb));
+    serialsByAttribute.computeIfAbsent(key, k -> new SpellbookStore()).put(sb);
+  }
+
+  /**
+   * Returns every spellbook whose attribute matches the search item, ignoring case.
+   *
+   * @param searchItem the attribute value to look up
+   * @return the matching spellbooks sorted by serial number, or an empty collection if there are none
+   */
+  public List<SpellBook> matches(String searchItem){
+    SpellbookStore matching = serialsByAttribute.get(foldCase(searchItem));
+    return matching == null ? Collections.emptyList() : matching.values();
+  }
+
+  // Folds each character the same way String.equalsIgnoreCase compares them, so index hits are identical
+  private static String foldCase(String value){
+    StringBuilder folded = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      folded.append(Character.toLowerCase(Character.toUpperCase(value.charAt(i))));
+    }
+    return folded.toString();
+  }
+}
@@ -0,0 +1,74 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spellbooks not currently rented, ordered by serial number for {@code LIST AVAILABLE}.
+ * Updated by every rental and return, so it is backed by a concurrent skip list: desks renting
+ * different spellbooks update it without blocking each other, and listings see a consistent walk in
+ * serial order while rentals carry on. The size is tracked separately since counting a skip list
+ * means walking it.
+ */
+public class AvailabilityIndex {
+  private final ConcurrentSkipListMap<Integer, SpellBook> spellbooks;
+  private final AtomicInteger size;
+
+  /**
+   * Constructs an empty {@code AvailabilityIndex}.
+   */
+  public AvailabilityIndex(){
+    this.spellbooks = new ConcurrentSkipListMap<>();
+    this.size = new AtomicInteger();
+  }
+
+  /**
+   * Marks a spellbook as available. Adding a spellbook that is already available does nothing.
+   *
+   * @param sb the spellbook to add
+   */
+  public void add(SpellBook sb){
+    if (spellbooks.putIfAbsent(sb.getSerialNumber(), sb) == null) {
+      size.incrementAndGet();
+    }
+  }
+
+  /**
+   * Marks a spellbook as no longer available. Removing one that is not available does nothing.
+   *
+   * @param sb the spellbook to remove
+   */
+  public void remove(SpellBook sb){
+    if (spellbooks.remove(sb.getSerialNumber()) != null) {
+      size.decrementAndGet();
+    }
+  }
+
+  public int size(){
+    return size.get();
+  }
+
+  public boolean isEmpty(){
+    return spellbooks.isEmpty();
+  }
+
+  /**
+   * Returns a live view of the available spellbooks in serial number order. Iterating it never
+   * throws if spellbooks are rented or returned meanwhile, but may or may not include those changes.
+   *
+   * @return the available spellbooks
+   */
+  public Collection<SpellBook> values(){
+    return spellbooks.values();
+  }
+
+  /**
+   * Returns a live view of the available spellbooks from a serial number onwards, found by a skip list
+   * search rather than by walking past the ones before it.
+   *
+   * @param serialNumber the first serial number to include, which need not be available
+   * @return the available spellbooks with that serial number or greater, in serial number order
+   */
+  public Collection<SpellBook> valuesFrom(int serialNumber){
+    return spellbooks.tailMap(serialNumber, true).values();
+  }
+}
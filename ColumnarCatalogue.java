@@ -0,0 +1,419 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code SpellbookCatalogue} for very large collections, storing spellbooks as columns of {@code int}s
+ * in direct (off-heap) buffers instead of one object per copy. Each row holds a serial number, the
+ * renting student, and dictionary codes for the title, inventor, type and short printable form, so a
+ * copy costs 24 bytes outside the garbage-collected heap while each distinct string is kept once.
+ *
+ * <p>{@code LIST}, {@code TYPE}, {@code INVENTOR}, {@code NUMBER COPIES} and the {@code LIST TYPES} /
+ * {@code LIST INVENTORS} listings are answered by scanning one column of codes, with case-insensitive
+ * matching done once per distinct value rather than once per copy. Renting and returning compare-and-set
+ * the renting column in place, and also flip the row's bit in a bitmap of rows not rented, which
+ * {@code LIST AVAILABLE} walks 64 rows at a time. Rental histories are only kept for spellbooks that have been returned,
+ * and rental side effects are ordered by a fixed set of lock stripes rather than a lock per copy.
+ */
+public class ColumnarCatalogue implements SpellbookCatalogue {
+  private static final int NOT_RENTED = -1;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int RENTAL_LOCK_STRIPES = 1024;  // Power of two
+  private static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+  // Column positions in the columns array
+  private static final int SERIAL = 0;
+  private static final int RENTING = 1;
+  private static final int TITLE = 2;
+  private static final int INVENTOR = 3;
+  private static final int TYPE = 4;
+  private static final int COPY = 5;
+  private static final int COLUMN_COUNT = 6;
+
+  private final ByteBuffer[] columns;
+  private final StringDictionary titles;
+  private final StringDictionary inventors;
+  private final StringDictionary types;
+  private final StringDictionary copies;  // Short printable forms, which NUMBER COPIES counts by
+  private final TitleIndex titleIndex;  // On the heap, but in flat arrays of 8 bytes per copy
+  private final Map<Integer, IntLog> histories;  // Keyed on serial number, only for spellbooks ever returned
+  private final Object[] rentalLocks;
+  private final RowBitmap availableBits;  // Set for every row not rented
+  private final AtomicInteger availableCount;
+  private int capacity;
+  private int size;
+
+  /**
+   * Constructs an empty {@code ColumnarCatalogue}.
+   */
+  public ColumnarCatalogue(){
+    this.columns = new ByteBuffer[COLUMN_COUNT];
+    for (int column = 0; column < COLUMN_COUNT; column++) {
+      columns[column] = allocateColumn(INITIAL_CAPACITY);
+    }
+    this.titles = new StringDictionary();
+    this.inventors = new StringDictionary();
+    this.types = new StringDictionary();
+    this.copies = new StringDictionary();
+    this.titleIndex = new TitleIndex();
+    this.histories = new ConcurrentHashMap<>();
+    this.rentalLocks = new Object[RENTAL_LOCK_STRIPES];
+    for (int i = 0; i < RENTAL_LOCK_STRIPES; i++) {
+      rentalLocks[i] = new Object();
+    }
+    this.availableBits = new RowBitmap(INITIAL_CAPACITY);
+    this.availableCount = new AtomicInteger();
+    this.capacity = INITIAL_CAPACITY;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(int serialNumber) {
+    return search(serialNumber) >= 0;
+  }
+
+  @Override
+  public int rowOf(int serialNumber) {
+    int index = search(serialNumber);
+    return index >= 0 ? index : -1;
+  }
+
+  @Override
+  public int rowAfter(int serialNumber) {
+    int index = search(serialNumber);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  @Override
+  public void add(SpellBook sb) {
+    int serialNumber = sb.getSerialNumber();
+    int row;
+
+    if (size == 0 || get(SERIAL, size - 1) < serialNumber) {  // Fast path for in-order inserts
+      ensureCapacity();
+      row = size++;
+    } else {
+      int index = search(serialNumber);
+      if (index >= 0) {
+        row = index;  // Replaces the existing copy
+        if (get(RENTING, row) == NOT_RENTED) availableCount.decrementAndGet();
+        histories.remove(serialNumber);
+      } else {
+        row = -(index + 1);
+        ensureCapacity();
+        for (ByteBuffer column : columns) {
+          column.put((row + 1) * Integer.BYTES, column, row * Integer.BYTES, (size - row) * Integer.BYTES);
+        }
+        availableBits.insert(row, size, false);
+        size++;
+      }
+    }
+
+    put(SERIAL, row, serialNumber);
+    put(RENTING, row, sb.getStudentRenting());
+    int titleCode = titles.encode(sb.getTitle());
+    put(TITLE, row, titleCode);
+    put(INVENTOR, row, inventors.encode(sb.getInventor()));
+    put(TYPE, row, types.encode(sb.getType()));
+    put(COPY, row, copies.encode(sb.getPrintableForm()));
+    titleIndex.add(serialNumber, titleCode, titles.decode(titleCode));
+
+    availableBits.set(row, sb.getStudentRenting() == NOT_RENTED);
+    if (sb.getStudentRenting() == NOT_RENTED) {
+      availableCount.incrementAndGet();
+    }
+    if (!sb.getHistory().isEmpty()) {
+      IntLog history = new IntLog();
+      for (int studentNumber : sb.getHistory().toArray()) {
+        history.add(studentNumber);
+      }
+      histories.put(serialNumber, history);
+    }
+  }
+
+  @Override
+  public int getSerialNumber(int row) {
+    return get(SERIAL, checkRow(row));
+  }
+
+  @Override
+  public String getTitle(int row) {
+    return titles.decode(get(TITLE, checkRow(row)));
+  }
+
+  @Override
+  public String getInventor(int row) {
+    return inventors.decode(get(INVENTOR, checkRow(row)));
+  }
+
+  @Override
+  public String getType(int row) {
+    return types.decode(get(TYPE, checkRow(row)));
+  }
+
+  @Override
+  public String getPrintableForm(int row, boolean longPresent) {
+    if (!longPresent) {
+      return copies.decode(get(COPY, checkRow(row)));  // Short form is already in the dictionary
+    }
+    return getTitle(row) + " (" + getInventor(row) + ", " + getType(row) + ")";
+  }
+
+  @Override
+  public int getPrintableFormCode(int row) {
+    return get(COPY, checkRow(row));
+  }
+
+  @Override
+  public String decodePrintableForm(int code) {
+    return copies.decode(code);
+  }
+
+  @Override
+  public String getRentingStatus(int row) {
+    int renting = getStudentRenting(row);
+    return renting == NOT_RENTED ? "Currently available." : "Rented by: " + renting + ".";
+  }
+
+  @Override
+  public int getStudentRenting(int row) {
+    return (int) INT_VIEW.getVolatile(columns[RENTING], checkRow(row) * Integer.BYTES);
+  }
+
+  @Override
+  public boolean tryRent(int row, int studentNumber) {
+    if (!INT_VIEW.compareAndSet(columns[RENTING], checkRow(row) * Integer.BYTES, NOT_RENTED, studentNumber)) {
+      return false;
+    }
+    availableBits.set(row, false);
+    availableCount.decrementAndGet();
+    return true;
+  }
+
+  @Override
+  public boolean tryReturn(int row, int studentNumber) {
+    if (!INT_VIEW.compareAndSet(columns[RENTING], checkRow(row) * Integer.BYTES, studentNumber, NOT_RENTED)) {
+      return false;
+    }
+    availableBits.set(row, true);
+    availableCount.incrementAndGet();
+    return true;
+  }
+
+  @Override
+  public Object rentalLock(int row) {
+    // Striped on serial number rather than row, since rows shift as spellbooks are added
+    return rentalLocks[getSerialNumber(row) & (RENTAL_LOCK_STRIPES - 1)];
+  }
+
+  @Override
+  public void addToHistory(int row, int studentNumber) {
+    histories.computeIfAbsent(getSerialNumber(row), k -> new IntLog()).add(studentNumber);
+  }
+
+  @Override
+  public int[] getHistory(int row) {
+    IntLog history = histories.get(getSerialNumber(row));
+    return history == null ? new int[0] : history.toArray();
+  }
+
+  @Override
+  public int[] getHistory(int row, int fromIndex, int toIndex) {
+    IntLog history = histories.get(getSerialNumber(row));
+    return history == null ? new int[0] : history.toArray(fromIndex, toIndex);
+  }
+
+  @Override
+  public int availableCount() {
+    return availableCount.get();
+  }
+
+  @Override
+  public PrimitiveIterator.OfInt availableRows(int fromRow) {
+    return new AvailableScan(fromRow);
+  }
+
+  @Override
+  public PrimitiveIterator.OfInt rowsWithType(String type) {
+    return new ColumnScan(TYPE, types.matchIgnoreCase(type), 0);
+  }
+
+  @Override
+  public PrimitiveIterator.OfInt rowsWithInventor(String inventor) {
+    return new ColumnScan(INVENTOR, inventors.matchIgnoreCase(inventor), 0);
+  }
+
+  @Override
+  public int[] serialsWithTitleContaining(String text) {
+    return titleIndex.serialsContaining(text);
+  }
+
+  @Override
+  public SortedMap<String, Integer> copyCounts() {
+    return countCodes(COPY, copies);
+  }
+
+  @Override
+  public SortedMap<String, Integer> typeCounts() {
+    return countCodes(TYPE, types);
+  }
+
+  @Override
+  public SortedMap<String, Integer> inventorCounts() {
+    return countCodes(INVENTOR, inventors);
+  }
+
+  @Override
+  public SpellBook toSpellBook(int row) {
+    SpellBook sb = new SpellBook(getSerialNumber(row), getTitle(row), getInventor(row), getType(row));
+    sb.setStudentRenting(getStudentRenting(row));
+    for (int studentNumber : getHistory(row)) {
+      sb.addToHistory(studentNumber);
+    }
+    return sb;
+  }
+
+  // Counts each code in one pass over a column, then sorts the distinct values alphabetically
+  private SortedMap<String, Integer> countCodes(int column, StringDictionary dictionary){
+    ByteBuffer codes = columns[column];
+    int[] counts = new int[dictionary.size()];
+    for (int row = 0; row < size; row++) {
+      counts[codes.getInt(row * Integer.BYTES)]++;
+    }
+
+    SortedMap<String, Integer> countsByValue = new TreeMap<>();
+    for (int code = 0; code < counts.length; code++) {
+      if (counts[code] > 0) {
+        countsByValue.put(dictionary.decode(code), counts[code]);  // Replaced copies can leave unused codes
+      }
+    }
+    return countsByValue;
+  }
+
+  // Binary search over the serial number column, following the Arrays.binarySearch return convention
+  private int search(int serialNumber){
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int middleSerial = get(SERIAL, middle);
+      if (middleSerial < serialNumber) {
+        low = middle + 1;
+      } else if (middleSerial > serialNumber) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private int get(int column, int row){
+    return columns[column].getInt(row * Integer.BYTES);
+  }
+
+  private void put(int column, int row, int value){
+    columns[column].putInt(row * Integer.BYTES, value);
+  }
+
+  private int checkRow(int row){
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + size);
+    }
+    return row;
+  }
+
+  private void ensureCapacity(){
+    if (size < capacity) return;
+
+    int newCapacity = capacity * 2;
+    for (int column = 0; column < COLUMN_COUNT; column++) {
+      ByteBuffer grown = allocateColumn(newCapacity);
+      grown.put(0, columns[column], 0, size * Integer.BYTES);
+      columns[column] = grown;  // Old buffer's memory is freed once it is collected
+    }
+    availableBits.ensureCapacity(newCapacity);  // Grown here, under the write lock, so renting never reallocates it
+    capacity = newCapacity;
+  }
+
+  private static ByteBuffer allocateColumn(int rows){
+    return ByteBuffer.allocateDirect(rows * Integer.BYTES).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Walks one column in row order, yielding the rows whose code is marked in {@code matches}.
+   */
+  private class ColumnScan implements PrimitiveIterator.OfInt {
+    private final ByteBuffer column;
+    private final boolean[] matches;
+    private int nextRow;
+
+    ColumnScan(int column, boolean[] matches, int fromRow){
+      this.column = columns[column];
+      this.matches = matches;
+      this.nextRow = advance(fromRow);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextRow < size;
+    }
+
+    @Override
+    public int nextInt() {
+      if (nextRow >= size) throw new NoSuchElementException();
+      int row = nextRow;
+      nextRow = advance(row + 1);
+      return row;
+    }
+
+    private int advance(int row){
+      for (; row < size; row++) {
+        int value = column.getInt(row * Integer.BYTES);
+        if (matches[value]) return row;
+      }
+      return row;
+    }
+  }
+
+  /**
+   * Walks the bitmap of rows not rented in row order, skipping whole words of rented rows.
+   */
+  private class AvailableScan implements PrimitiveIterator.OfInt {
+    private int nextRow;
+
+    AvailableScan(int fromRow){
+      this.nextRow = availableBits.nextSetRow(fromRow);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextRow >= 0 && nextRow < size;
+    }
+
+    @Override
+    public int nextInt() {
+      if (!hasNext()) throw new NoSuchElementException();
+      int row = nextRow;
+      nextRow = availableBits.nextSetRow(row + 1);
+      return row;
+    }
+  }
+}
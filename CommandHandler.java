@@ -1,40 +1,239 @@
 import java.io.FileNotFoundException;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Scanner;
 import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.SortedMap;
 import java.util.List;
 import java.util.Set;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.TreeSet;
-import java.util.Collections;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.function.Function;
+import java.util.concurrent.ForkJoinPool;
 
 // Please note: wildcard imports avoided to follow Google Java Guide: https://google.github.io/styleguide/javaguide.html
 
 /**
  * Handles user commands for managing students and spellbooks in the Hogwarts Archive system.
  * Supports operations such as listing, searching, renting, relinquishing, and saving data.
+ *
+ * <p>Several handlers can share one archive (see {@link #CommandHandler(CommandHandler, CommandOutput)}),
+ * eg. one per library desk, and handle commands concurrently. Commands that add spellbooks change the
+ * catalogue structure and run alone; every other command runs alongside the rest. Rentals and returns
+ * claim a spellbook with compare-and-set and hold only that spellbook's lock (then its student's) while
+ * updating the loans, so desks working on different spellbooks never wait for each other.
  */
 public class CommandHandler {
   private Map<Integer, Student> studentMap;
-  private Map<Integer, SpellBook> spellbookMap;
+  private SpellbookCatalogue catalogue;  // Every spellbook in the system, addressed by row in serial order
+  private MappedCollectionLoader collectionLoader;
+  private ParallelCollectionLoader parallelCollectionLoader;
+  private Map<String, CsvOffsetIndex> csvOffsetIndexes;  // Keyed on absolute csv file path
+  private Map<String, SavedCollection> savedCollections;  // Keyed on absolute csv file path, guarded by its own monitor
   private CommonErrorChecker errCheck;
-  private static final int NOT_RENTED = -1;
+  private CommandOutput out;
+  private CommandTokenizer tokens;  // Reused for every command this handler parses
+  private boolean suppressSuccess;  // Set for quiet batch replays
+  private RentalJournal journal;  // Null unless the archive was started with a journal
+  private ReadWriteLock catalogueLock;  // Write-held while spellbooks are added or an atomic batch applies, read-held by every other command
+  private CommandStats stats;  // Shared by every desk on the archive
+  private long rowsScanned;  // Counted for the command being handled, then recorded in stats
+  private long rowsEmitted;
+  private boolean hasPageAfter;  // AFTER and LIMIT of the command being handled, set by parsePageOptions
+  private int pageAfter;
+  private int pageLimit;
 
+  /**
+   * Constructs a {@code CommandHandler} whose output is buffered for {@code System.out}.
+   */
   public CommandHandler(){
-    studentMap = new HashMap<>();
-    spellbookMap = new HashMap<>();
-    errCheck = new CommonErrorChecker(studentMap, spellbookMap);
+    this(new CommandOutput(System.out));
+  }
+
+  /**
+   * Constructs a {@code CommandHandler} printing to the given sink, with spellbooks held on the heap.
+   * Output is buffered, so callers flush the sink once each command has been handled.
+   *
+   * @param out sink that every command's output is printed to
+   */
+  public CommandHandler(CommandOutput out){
+    this(out, new HeapCatalogue());
+  }
+
+  /**
+   * Constructs a {@code CommandHandler} printing to the given sink and storing spellbooks in the given engine.
+   *
+   * @param out       sink that every command's output is printed to
+   * @param catalogue empty storage engine for spellbooks, eg. a {@code ColumnarCatalogue} for very large collections
+   */
+  public CommandHandler(CommandOutput out, SpellbookCatalogue catalogue){
+    this.out = out;
+    this.catalogue = catalogue;
+    tokens = new CommandTokenizer();
+    studentMap = new ConcurrentHashMap<>();
+    collectionLoader = new MappedCollectionLoader();
+    parallelCollectionLoader = new ParallelCollectionLoader(ForkJoinPool.commonPool());
+    csvOffsetIndexes = new HashMap<>();
+    savedCollections = new HashMap<>();
+    catalogueLock = new ReentrantReadWriteLock();
+    stats = new CommandStats();
+    errCheck = new CommonErrorChecker(studentMap, catalogue, out);
     Student.resetStudentId();  // Resets studentID for each Ed test case
   }
 
+  /**
+   * Constructs a {@code CommandHandler} for another desk on the same archive as {@code shared}, printing to its own sink.
+   * Both handlers see each other's changes and may handle commands from different threads at the same time.
+   * The new handler logs to the journal attached to {@code shared} when it is constructed.
+   *
+   * @param shared handler whose students, spellbooks and journal are shared
+   * @param out    sink that this handler's command output is printed to
+   */
+  public CommandHandler(CommandHandler shared, CommandOutput out){
+    this.out = out;
+    tokens = new CommandTokenizer();
+    studentMap = shared.studentMap;
+    catalogue = shared.catalogue;
+    collectionLoader = shared.collectionLoader;  // Only used while the catalogue lock is write-held
+    parallelCollectionLoader = shared.parallelCollectionLoader;
+    csvOffsetIndexes = shared.csvOffsetIndexes;
+    savedCollections = shared.savedCollections;
+    journal = shared.journal;
+    catalogueLock = shared.catalogueLock;
+    stats = shared.stats;
+    errCheck = new CommonErrorChecker(studentMap, catalogue, out);
+  }
+
+  /**
+   * Sets whether "Success." confirmations are printed. Error messages and query results are always printed.
+   *
+   * @param suppressSuccess {@code true} to leave out "Success." lines, eg. when replaying a transaction log
+   */
+  public void setSuppressSuccess(boolean suppressSuccess) {
+    this.suppressSuccess = suppressSuccess;
+  }
+
+  /**
+   * Attaches a journal that every student, spellbook, rental and return is logged to from now on.
+   * Attach it after replaying the journal so replayed events are not logged twice.
+   *
+   * @param journal the journal to log to, or {@code null} to stop journaling
+   */
+  public void setJournal(RentalJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Returns the command counters and latency histograms shared by every desk on this archive.
+   *
+   * @return the shared {@code CommandStats}
+   */
+  public CommandStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Copies the current state of every spellbook and student, pausing commands on every desk sharing
+   * this archive while it copies. Write the returned snapshot from any thread, once the journal has been
+   * committed up to the snapshot's journal offset.
+   *
+   * @return the captured snapshot, covering the journal as appended when it was captured
+   */
+  public ArchiveSnapshot captureSnapshot() {
+    catalogueLock.writeLock().lock();
+    try {
+      // Every journal append happens under the catalogue lock, so nothing is appended while this lock is write-held
+      long journalOffset = journal != null ? journal.getAppendedBytes() : 0;
+      List<SpellBook> spellbooks = new ArrayList<>(catalogue.size());
+      for (int row = 0; row < catalogue.size(); row++) {
+        spellbooks.add(catalogue.toSpellBook(row));
+      }
+      return ArchiveSnapshot.capture(spellbooks, studentMap.values(), Student.getNextStudentId(), journalOffset);
+    } finally {
+      catalogueLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Loads a snapshot into this handler, which should be freshly constructed.
+   *
+   * @param snapshot the snapshot to restore
+   */
+  public void restoreSnapshot(ArchiveSnapshot snapshot) {
+    for (SpellBook sb : snapshot.toSpellbooks()) {
+      addSpellbook(sb);  // Snapshot is in serial order, so every insert appends
+    }
+    for (Student student : snapshot.toStudents()) {
+      for (int serialNumber : student.getHistory().toArray()) {  // Codes belong to this catalogue, so they are not captured
+        student.addReturnedTitle(catalogue.getPrintableFormCode(catalogue.rowOf(serialNumber)));
+      }
+      studentMap.put(student.getNumber(), student);
+    }
+    Student.setNextStudentId(snapshot.getNextStudentId());
+  }
+
+  /**
+   * Re-adds a student from the journal with the student number originally assigned, unless a student
+   * with that number is already present. Desks adding students at once may journal them out of number
+   * order, so the counter only ever moves forward.
+   *
+   * @param studentNumber the student number originally assigned
+   * @param name          the student's name
+   */
+  public void restoreStudent(int studentNumber, String name) {
+    if (!studentMap.containsKey(studentNumber)) {  // Replacing would drop the loans and history restored so far
+      studentMap.put(studentNumber, new Student(studentNumber, name));
+    }
+    Student.reserveStudentId(studentNumber);
+  }
+
+  /**
+   * Re-adds a spellbook from the journal, unless one with the same serial number is already present.
+   *
+   * @param sb the journaled spellbook
+   */
+  public void restoreSpellbook(SpellBook sb) {
+    if (!catalogue.containsKey(sb.getSerialNumber())) {
+      addSpellbook(sb);
+    }
+  }
+
+  /**
+   * Re-applies a journaled rental without printing anything. Events that no longer apply are skipped.
+   *
+   * @param studentNumber the student who rented the spellbook
+   * @param serialNumber  the rented spellbook
+   */
+  public void restoreRent(int studentNumber, int serialNumber) {
+    Student student = studentMap.get(studentNumber);
+    int row = catalogue.rowOf(serialNumber);
+    if (student != null && row >= 0) {
+      applyRent(student, row);
+    }
+  }
+
+  /**
+   * Re-applies a journaled return without printing anything. Events that no longer apply are skipped.
+   *
+   * @param studentNumber the student who returned the spellbook
+   * @param serialNumber  the returned spellbook
+   */
+  public void restoreRelinquish(int studentNumber, int serialNumber) {
+    Student student = studentMap.get(studentNumber);
+    int row = catalogue.rowOf(serialNumber);
+    if (student != null && row >= 0) {
+      applyRelinquish(student, row);
+    }
+  }
+
   /**
    * Parses and executes a user command.
    *
@@ -42,198 +241,280 @@ public class CommandHandler {
    * @return {@code true} if the command signals to exit the program, otherwise {@code false}
    */
   public boolean handleCommand(String userInput) {
-    String[] userInputParts = userInput.split(" ");
-    String mainCommand = userInputParts[0].toUpperCase();
+    tokens.reset(userInput);  // Tokens are offsets into userInput, nothing is copied
+    CommandVerb verb = CommandVerb.lookup(tokens);
+    if (verb == null) return false;  // Unknown commands are ignored
+
+    long startTime = System.nanoTime();  // Timed from before the lock, so waiting on another desk's ADD shows up
+    rowsScanned = 0;
+    rowsEmitted = 0;
+
+    Lock lock = changesCatalogue(verb) ? catalogueLock.writeLock() : catalogueLock.readLock();
+    lock.lock();
+    try {
+      return dispatchCommand(verb);
+    } finally {
+      lock.unlock();
+      stats.record(verb, System.nanoTime() - startTime, rowsScanned, rowsEmitted);
+    }
+  }
 
-    switch (mainCommand) {
-      case "EXIT" -> {
-        System.out.println("Ending Archive process.");
+  // Adding spellbooks inserts into the sorted store, indexes and counts, which readers walk without locking.
+  // An atomic batch also holds every other desk off, so no pair it validated can change before it is applied
+  private boolean changesCatalogue(CommandVerb verb) {
+    if (verb == CommandVerb.RENT || verb == CommandVerb.RELINQUISH) {
+      return tokens.hasToken(1, "BATCH") && tokens.hasToken(2, "ATOMIC");
+    }
+    return verb == CommandVerb.ADD && tokens.count() >= 2 && !tokens.tokenEquals(1, "STUDENT");
+  }
+
+  private boolean dispatchCommand(CommandVerb verb) {
+    switch (verb) {
+      case EXIT -> {
+        out.println("Ending Archive process.");
         return true;
       }
-      case "COMMANDS" -> printHelpString();
-      case "LIST" -> manageListCommand(userInputParts);
-      case "NUMBER" ->  manageNumberCopies();
-      case "TYPE" -> searchSpellbooksByAttribute(SpellBook::getType, userInputParts);  // Passes in extractor
-      case "INVENTOR" -> searchSpellbooksByAttribute(SpellBook::getInventor, userInputParts);
-      case "SPELLBOOK" -> {
-        if (userInputParts[1].equalsIgnoreCase("HISTORY")){
-          displaySpellbookHistory(userInputParts);
+      case COMMANDS -> printHelpString();
+      case LIST -> manageListCommand();
+      case NUMBER -> {
+        if (tokens.hasToken(1, "AVAILABLE")){
+          printAvailableCount();
+        } else {
+          manageNumberCopies();
+        }
+      }
+      case TYPE -> searchSpellbooksByAttribute(true);
+      case INVENTOR -> searchSpellbooksByAttribute(false);
+      case SEARCH -> searchSpellbooksByTitle();
+      case SPELLBOOK -> {
+        if (tokens.tokenEquals(1, "HISTORY")){
+          displaySpellbookHistory();
         } else {
-          displaySpellbook(userInputParts);
+          displaySpellbook();
         }
       }
-      case "STUDENT" -> manageStudent(userInputParts);
-      case "RENT" -> rentSpellbook(userInputParts);
-      case "RELINQUISH" -> {
+      case STUDENT -> manageStudent();
+      case RENT -> {
+        if (tokens.hasToken(1, "BATCH")){
+          applyRentalBatch(true);
+        } else {
+          rentSpellbook();
+        }
+      }
+      case RELINQUISH -> {
         if(errCheck.checkEmptyStudents()) break;
 
-        if (userInputParts[1].equalsIgnoreCase("ALL")){
-          relinquishAll(userInputParts);
+        if (tokens.tokenEquals(1, "ALL")){
+          relinquishAll();
+        } else if (tokens.tokenEquals(1, "BATCH")){
+          applyRentalBatch(false);
+        } else {
+          relinquish();
+        }
+      }
+      case ADD -> manageAddCommands();
+      case SAVE -> saveToFile();
+      case COMMON -> printCommon();
+      case STATS -> {
+        if (tokens.hasToken(1, "RESET")) {
+          stats.reset();
+          printSuccess();
         } else {
-          relinquish(userInputParts);
+          stats.printTo(out);
         }
       }
-      case "ADD" -> manageAddCommands(userInputParts);
-      case "SAVE" -> saveToFile(userInputParts);
-      case "COMMON" -> printCommon(userInputParts);
     }
     return false;
   }
 
   //  -- Main functions processing command logic --
 
-  private void manageListCommand(String[] userInputParts) {
+  private void manageListCommand() {
     if (errCheck.checkEmptySpellbooks()) return;
 
-    boolean longPresent = userInputParts.length >= 3 && userInputParts[2].equalsIgnoreCase("LONG");
-    String listCommandType = userInputParts[1].toUpperCase();  // ALL, AVAILABLE, TYPES, INVENTORS
-
-    // Handles all types of commands which start with LIST
-    switch (listCommandType) {
-      case "ALL" -> printSpellbooks(spellbookMap.values(), longPresent);
-      case "AVAILABLE" -> {
-        List<SpellBook> availableSpellbooks = new ArrayList<>();
-        for (SpellBook sb : spellbookMap.values()) {
-          if (sb.getStudentRenting() == NOT_RENTED) {  // Checks only for available spellbooks
-            availableSpellbooks.add(sb);
-          }
-        }
-        printSpellbooks(availableSpellbooks, longPresent);
-      }
-      case "TYPES" -> printSpellbookUniqueAttributes(SpellBook::getType);
-      case "INVENTORS" -> printSpellbookUniqueAttributes(SpellBook::getInventor);
+    boolean longPresent = tokens.hasToken(2, "LONG");
+
+    // Handles all types of commands which start with LIST: ALL, AVAILABLE, TYPES, INVENTORS
+    if (tokens.tokenEquals(1, "ALL")) {
+      if (!parsePageOptions(longPresent ? 3 : 2)) return;
+      int fromRow = hasPageAfter ? catalogue.rowAfter(pageAfter) : 0;
+      printSpellbooks(IntStream.range(fromRow, catalogue.size()).iterator(), longPresent, pageLimit);  // Rows are already in serial order
+    } else if (tokens.tokenEquals(1, "AVAILABLE")) {
+      if (!parsePageOptions(longPresent ? 3 : 2)) return;
+      int fromRow = hasPageAfter ? catalogue.rowAfter(pageAfter) : 0;
+      printSpellbooks(catalogue.availableRows(fromRow), longPresent, pageLimit);
+    } else if (tokens.tokenEquals(1, "TYPES")) {
+      printSpellbookUniqueAttributes(catalogue.typeCounts());
+    } else if (tokens.tokenEquals(1, "INVENTORS")) {
+      printSpellbookUniqueAttributes(catalogue.inventorCounts());
     }
   }
 
   private void manageNumberCopies(){
     if (errCheck.checkEmptySpellbooks()) return;
 
-    Map<String, Integer> spellbookCountHashMap = new HashMap<>();
-
-    // Count occurrences of each copy and store in hashmap
-    for (SpellBook sb : spellbookMap.values()){
-      if (spellbookCountHashMap.containsKey(sb.getPrintableForm())) {
-        spellbookCountHashMap.put(sb.getPrintableForm(), spellbookCountHashMap.get(sb.getPrintableForm()) + 1);
-      } else {
-        spellbookCountHashMap.put(sb.getPrintableForm(), 1);
-      }
+    // Counts come back sorted by spellbook title, so this is a single walk
+    SortedMap<String, Integer> copyCounts = catalogue.copyCounts();
+    for (Map.Entry<String, Integer> numCopiesEntry : copyCounts.entrySet()){
+      out.println(numCopiesEntry.getKey() + ": " + numCopiesEntry.getValue());
     }
+    rowsScanned += copyCounts.size();
+    rowsEmitted += copyCounts.size();
+  }
 
-    List<Map.Entry<String, Integer>> sortedSpellbookEntries = new ArrayList<>(spellbookCountHashMap.entrySet());
-    sortedSpellbookEntries.sort(Map.Entry.comparingByKey());  // Sort output by spellbook title in list of maps
+  private void printAvailableCount(){
+    if (errCheck.checkEmptySpellbooks()) return;
 
-    // Print entries in hashmap nicely
-    for (Map.Entry<String, Integer> numCopiesEntry : sortedSpellbookEntries){
-      System.out.println(numCopiesEntry.getKey() + ": " + numCopiesEntry.getValue());
-    }
+    out.println(catalogue.availableCount() + " spellbooks available.");
   }
 
-  private void searchSpellbooksByAttribute(Function<SpellBook, String> extractor, String[] userInputParts){
+  private void searchSpellbooksByAttribute(boolean byType){
     if (errCheck.checkEmptySpellbooks()) return;
 
     // Ensures that multi-word search items are accounted for
-    String searchItem = String.join(" ", Arrays.copyOfRange(userInputParts, 1, userInputParts.length));
+    String searchItem = tokens.rest(1);
 
-    List<SpellBook> matchingSpellbooks = new ArrayList<>();
+    // Engine only yields rows whose attribute (type or inventor) matches the search item
+    PrimitiveIterator.OfInt matchingRows = byType ? catalogue.rowsWithType(searchItem)
+            : catalogue.rowsWithInventor(searchItem);
 
-    // If spellbook's specified attribute (type or inventor) matches the search item, add to matching list
-    for (SpellBook sb : spellbookMap.values()){
-      if (extractor.apply(sb).equalsIgnoreCase(searchItem)){
-        matchingSpellbooks.add(sb);
+    if (!matchingRows.hasNext()){
+      if (byType){
+        out.println("No spellbooks with type " + searchItem + ".");
+      } else {
+        out.println("No spellbooks by " + searchItem + ".");
       }
+      return;
     }
 
-    if (matchingSpellbooks.isEmpty()){
-      if (userInputParts[0].equalsIgnoreCase("TYPE")){
-        System.out.println("No spellbooks with type " + searchItem + ".");
-      } else {
-        System.out.println("No spellbooks by " + searchItem + ".");
-      }
+    printSpellbooks(matchingRows, false, Integer.MAX_VALUE);  // Print matching spellbooks in short form
+  }
+
+  private void searchSpellbooksByTitle(){
+    if (errCheck.checkEmptySpellbooks()) return;
+
+    String searchText = tokens.rest(1);
+    if (searchText.length() < TitleIndex.MIN_SEARCH_LENGTH) {
+      out.println("Invalid search, expected at least " + TitleIndex.MIN_SEARCH_LENGTH + " characters.");
+      return;
+    }
+
+    // Serial numbers come back sorted, so their rows are too
+    int[] matchingSerialNumbers = catalogue.serialsWithTitleContaining(searchText);
+    if (matchingSerialNumbers.length == 0){
+      out.println("No spellbooks matching " + searchText + ".");
       return;
     }
 
-    printSpellbooks(matchingSpellbooks, false);  // Print matching spellbooks in short form
+    printSpellbooks(Arrays.stream(matchingSerialNumbers).map(catalogue::rowOf).iterator(), false, Integer.MAX_VALUE);
   }
 
-  private void displaySpellbookHistory(String[] userInputParts){
-    int serialNumber = Integer.parseInt(userInputParts[2]);
-    SpellBook sb = spellbookMap.get(serialNumber);
+  private void displaySpellbookHistory(){
+    int serialNumber = tokens.parseInt(2);
+    int row = catalogue.rowOf(serialNumber);
 
     if (errCheck.isMissingSpellbook(serialNumber)) return;
+    if (!parsePageOptions(3)) return;
 
-    List<Integer> spellbookHistory = new ArrayList<>(sb.getHistory());
+    // Copies only the page, plus one entry to tell whether another page follows
+    int fromIndex = hasPageAfter ? Math.max(pageAfter, 0) : 0;
+    int[] spellbookHistory;
+    synchronized (catalogue.rentalLock(row)) {
+      spellbookHistory = catalogue.getHistory(row, fromIndex, pageEnd(fromIndex));
+    }
 
-    if (spellbookHistory.isEmpty()){
-      System.out.println("No rental history.");
+    if (spellbookHistory.length == 0){
+      out.println("No rental history.");
       return;
     }
 
-    for (int studentNumber : spellbookHistory){
-      System.out.println(studentNumber);
+    int pageLength = Math.min(spellbookHistory.length, pageLimit);
+    for (int i = 0; i < pageLength; i++){
+      out.println(spellbookHistory[i]);
+    }
+    rowsScanned += spellbookHistory.length;
+    rowsEmitted += pageLength;
+    if (spellbookHistory.length > pageLength) {
+      printNextPage(fromIndex + pageLength);
     }
   }
 
-  private void displaySpellbook(String[] userInputParts){
+  private void displaySpellbook(){
     if(errCheck.checkEmptySpellbooks()) return;
 
-    boolean longPresent = userInputParts.length >= 3 && userInputParts[2].equalsIgnoreCase("LONG");
-    int serialNumber = Integer.parseInt(userInputParts[1]);
-    SpellBook sb = spellbookMap.get(serialNumber);
+    boolean longPresent = tokens.hasToken(2, "LONG");
+    int serialNumber = tokens.parseInt(1);
+    int row = catalogue.rowOf(serialNumber);
 
     if (errCheck.isMissingSpellbook(serialNumber)) return;
 
-    // Either print short or long string based on longPresent
-    System.out.println(longPresent ? serialNumber + ": " + sb.getPrintableForm(longPresent) + "\n" +
-            sb.getRentingStatus() : sb.getPrintableForm(longPresent));
+    printSpellbook(row, longPresent);
   }
 
-  private void manageStudent(String[] userInputParts){
+  private void manageStudent(){
     if (errCheck.checkEmptyStudents()) return;
 
     // Order of if-statement checks is STUDENT SPELLBOOKS, STUDENT HISTORY and lastly STUDENT commands
-    if (userInputParts[1].equalsIgnoreCase("SPELLBOOKS")){
-      int studentNumber = Integer.parseInt(userInputParts[2]);
+    if (tokens.tokenEquals(1, "SPELLBOOKS")){
+      int studentNumber = tokens.parseInt(2);
       if (errCheck.isMissingStudent(studentNumber)) return;
 
       Student student = studentMap.get(studentNumber);
 
-      List<Integer> sbSerialNumbersArray = student.getCurrentSpellbooks();
-      if (sbSerialNumbersArray.isEmpty()){
-        System.out.println("Student not currently renting.");
+      int[] sbSerialNumbersArray;
+      synchronized (student) {
+        sbSerialNumbersArray = student.getCurrentSpellbooks().toArray();
+      }
+      if (sbSerialNumbersArray.length == 0){
+        out.println("Student not currently renting.");
         return;
       }
 
       for (int spellBookSerialNumber : sbSerialNumbersArray){
-        System.out.println(spellbookMap.get(spellBookSerialNumber).getPrintableForm());
+        out.println(catalogue.getPrintableForm(catalogue.rowOf(spellBookSerialNumber), false));
       }
+      rowsScanned += sbSerialNumbersArray.length;
+      rowsEmitted += sbSerialNumbersArray.length;
 
-    } else if (userInputParts[1].equalsIgnoreCase("HISTORY")){
-      int studentNumber = Integer.parseInt(userInputParts[2]);
+    } else if (tokens.tokenEquals(1, "HISTORY")){
+      int studentNumber = tokens.parseInt(2);
       if (errCheck.isMissingStudent(studentNumber)) return;
 
+      if (!parsePageOptions(3)) return;
+
       Student student = studentMap.get(studentNumber);
-      List<Integer> studentHistory = new ArrayList<>(student.getHistory());
+      int fromIndex = hasPageAfter ? Math.max(pageAfter, 0) : 0;
+      int[] studentHistory;
+      synchronized (student) {
+        studentHistory = student.getHistory().toArray(fromIndex, pageEnd(fromIndex));
+      }
 
-      if (studentHistory.isEmpty()) {
-        System.out.println("No rental history for student.");
+      if (studentHistory.length == 0) {
+        out.println("No rental history for student.");
         return;
       }
 
-      for (int spellBookSerialNumber : studentHistory){
-        System.out.println(spellbookMap.get(spellBookSerialNumber).getPrintableForm());
+      int pageLength = Math.min(studentHistory.length, pageLimit);
+      for (int i = 0; i < pageLength; i++){
+        out.println(catalogue.getPrintableForm(catalogue.rowOf(studentHistory[i]), false));
+      }
+      rowsScanned += studentHistory.length;
+      rowsEmitted += pageLength;
+      if (studentHistory.length > pageLength) {
+        printNextPage(fromIndex + pageLength);
       }
 
     } else {
-      int studentNumber = Integer.parseInt(userInputParts[1]);
+      int studentNumber = tokens.parseInt(1);
       if (errCheck.isMissingStudent(studentNumber)) return;
 
-      System.out.println(studentNumber + ": " + studentMap.get(studentNumber).getName());
+      out.println(studentNumber + ": " + studentMap.get(studentNumber).getName());
     }
   }
 
-  private void rentSpellbook(String[] userInputParts){
-    int studentNumber = Integer.parseInt(userInputParts[1]);
-    int serialNumber = Integer.parseInt(userInputParts[2]);
+  private void rentSpellbook(){
+    int studentNumber = tokens.parseInt(1);
+    int serialNumber = tokens.parseInt(2);
 
     if (errCheck.checkEmptyStudents()) return;
     if (errCheck.checkEmptySpellbooks()) return;
@@ -242,209 +523,368 @@ public class CommandHandler {
     if (errCheck.isMissingSpellbook(serialNumber)) return;
 
     Student student = studentMap.get(studentNumber);
-    SpellBook spellbook = spellbookMap.get(serialNumber);
+    int row = catalogue.rowOf(serialNumber);
 
-    if (spellbook.getStudentRenting() != NOT_RENTED){
-      System.out.println("Spellbook is currently unavailable.");
+    if (!applyRent(student, row)){
+      out.println("Spellbook is currently unavailable.");
       return;
     }
-
-    spellbook.setStudentRenting(studentNumber);
-    student.addToCurrentSpellbooks(serialNumber);
-
-    System.out.println("Success.");
+    printSuccess();
   }
 
-  private void relinquishAll(String[] userInputParts) {
-    int studentNumber = Integer.parseInt(userInputParts[2]);
+  private void relinquishAll() {
+    int studentNumber = tokens.parseInt(2);
 
     if (errCheck.isMissingStudent(studentNumber)) return;
 
     Student student = studentMap.get(studentNumber);
-    List<Integer> studentCurrentSpellbooksArray = new ArrayList<>(student.getCurrentSpellbooks());
+    int[] studentCurrentSpellbooksArray;
+    synchronized (student) {
+      studentCurrentSpellbooksArray = student.getCurrentSpellbooks().toArray();
+    }
 
     for (int serialNumber : studentCurrentSpellbooksArray) {
       relinquishHelperMethod(studentNumber, serialNumber);  // Relinquish every spellbook owned by student
     }
-
-    student.clearCurrentSpellbooks();
-    System.out.println("Success.");
+    printSuccess();
   }
 
 
-  private void relinquish(String[] userInputParts) {
+  private void relinquish() {
     if (errCheck.checkEmptyStudents()) return;
     if (errCheck.checkEmptySpellbooks()) return;
 
-    int studentNumber = Integer.parseInt(userInputParts[1]);
-    int serialNumber = Integer.parseInt(userInputParts[2]);
+    int studentNumber = tokens.parseInt(1);
+    int serialNumber = tokens.parseInt(2);
 
     boolean success = relinquishHelperMethod(studentNumber, serialNumber);
 
     if (success) {
-      System.out.println("Success.");
+      printSuccess();
+    }
+  }
+
+
+  // RENT BATCH and RELINQUISH BATCH: [ATOMIC] then either pairs of numbers or FILE <filename>
+  private void applyRentalBatch(boolean renting) {
+    if (errCheck.checkEmptyStudents()) return;
+    if (errCheck.checkEmptySpellbooks()) return;
+
+    boolean atomic = tokens.hasToken(2, "ATOMIC");
+    int firstIndex = atomic ? 3 : 2;
+
+    RentalBatch batch;
+    if (tokens.hasToken(firstIndex, "FILE")) {
+      try {
+        batch = RentalBatch.fromFile(new File(tokens.token(firstIndex + 1)));
+      } catch (FileNotFoundException e) {
+        out.println("No such file.");
+        return;
+      } catch (IOException e) {
+        out.println("Unable to read batch.");
+        return;
+      }
+    } else {
+      batch = RentalBatch.fromTokens(tokens, firstIndex);
     }
+    if (batch == null) {
+      out.println("Invalid batch.");
+      return;
+    }
+
+    if (atomic) {
+      applyAtomicBatch(batch, renting);
+    } else {
+      applyBestEffortBatch(batch, renting);
+    }
+    rowsScanned += batch.size();
+    rowsEmitted += batch.size();
+
+    // One line per pair, then how many pairs took effect
+    for (int i = 0; i < batch.size(); i++) {
+      out.print(batch.getStudentNumber(i));
+      out.print(" ");
+      out.print(batch.getSerialNumber(i));
+      out.print(": ");
+      out.println(batch.getResult(i).name());
+    }
+    RentalBatch.Result applied = renting ? RentalBatch.Result.RENTED : RentalBatch.Result.RETURNED;
+    out.println(batch.countResults(applied) + " of " + batch.size() + (renting ? " spellbooks rented." : " spellbooks returned."));
   }
 
+  // Applies each pair on its own, so a failed pair leaves the others in place
+  private void applyBestEffortBatch(RentalBatch batch, boolean renting) {
+    Student student = null;
+    for (int i = 0; i < batch.size(); i++) {
+      int studentNumber = batch.getStudentNumber(i);
+      if (student == null || student.getNumber() != studentNumber) {
+        student = studentMap.get(studentNumber);  // Consecutive pairs are usually for the same student
+      }
+      int row = catalogue.rowOf(batch.getSerialNumber(i));
+
+      if (student == null) {
+        batch.setResult(i, RentalBatch.Result.NO_SUCH_STUDENT);
+      } else if (row < 0) {
+        batch.setResult(i, RentalBatch.Result.NO_SUCH_SPELLBOOK);
+      } else if (renting) {
+        batch.setResult(i, applyRent(student, row) ? RentalBatch.Result.RENTED : RentalBatch.Result.UNAVAILABLE);
+      } else {
+        batch.setResult(i, applyRelinquish(student, row) ? RentalBatch.Result.RETURNED : RentalBatch.Result.NOT_RENTED);
+      }
+    }
+  }
+
+  // Runs with the catalogue lock write-held, so validating every pair first means applying them cannot fail
+  private void applyAtomicBatch(RentalBatch batch, boolean renting) {
+    Student[] students = new Student[batch.size()];
+    int[] rows = new int[batch.size()];
+    BitSet claimedRows = new BitSet();  // Rows an earlier pair of this batch rents or returns
+    boolean allValid = true;
+
+    for (int i = 0; i < batch.size(); i++) {
+      int studentNumber = batch.getStudentNumber(i);
+      students[i] = i > 0 && batch.getStudentNumber(i - 1) == studentNumber ? students[i - 1] : studentMap.get(studentNumber);
+      rows[i] = catalogue.rowOf(batch.getSerialNumber(i));
+
+      RentalBatch.Result failure = null;
+      if (students[i] == null) {
+        failure = RentalBatch.Result.NO_SUCH_STUDENT;
+      } else if (rows[i] < 0) {
+        failure = RentalBatch.Result.NO_SUCH_SPELLBOOK;
+      } else if (claimedRows.get(rows[i]) || catalogue.getStudentRenting(rows[i]) != (renting ? -1 : studentNumber)) {
+        failure = renting ? RentalBatch.Result.UNAVAILABLE : RentalBatch.Result.NOT_RENTED;
+      } else {
+        claimedRows.set(rows[i]);
+      }
+
+      if (failure != null) {
+        batch.setResult(i, failure);
+        allValid = false;
+      }
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      if (batch.getResult(i) != null) continue;
+
+      if (!allValid) {
+        batch.setResult(i, RentalBatch.Result.NOT_APPLIED);
+      } else if (renting) {
+        applyRent(students[i], rows[i]);
+        batch.setResult(i, RentalBatch.Result.RENTED);
+      } else {
+        applyRelinquish(students[i], rows[i]);
+        batch.setResult(i, RentalBatch.Result.RETURNED);
+      }
+    }
+  }
 
-  private void manageAddCommands(String[] userInputParts){
-    if (userInputParts[1].equalsIgnoreCase("STUDENT")) {
+  private void manageAddCommands(){
+    if (tokens.tokenEquals(1, "STUDENT")) {
 
       // Accepts student name with spaces
-      String fullName = String.join(" ", Arrays.copyOfRange(userInputParts, 2, userInputParts.length));
+      String fullName = tokens.rest(2);
 
       Student student = new Student(fullName);
+      if (journal != null) {
+        // Journaled before other desks can see the student, so their rentals are never journaled ahead of it
+        journal.logAddStudent(student.getNumber(), fullName);
+      }
       studentMap.put(student.getNumber(), student); // Add studentNumber as key, and object as value
-      System.out.println("Success.");
+      printSuccess();
+    }
+
+    else if (tokens.tokenEquals(1, "SPELLBOOK")) {
+      addSpellbookFromFile();
     }
 
-    else {
-      String addCommandType = userInputParts[1].toUpperCase();  // SPELLBOOK or COLLECTION
+    else if (tokens.tokenEquals(1, "COLLECTIONS")) {
+      addCollectionsFromFiles();
+    }
 
-      String filePath = userInputParts[2];
+    else {  // ADD COLLECTION command
+      String filePath = tokens.token(2);
       File fileObj = new File(filePath);
 
-      boolean spellbookAdded = false; // Used by ADD SPELLBOOK command
-      int sbCount = 0;  // Used by ADD COLLECTION command
+      try {
+        // Duplicates are skipped before their fields are decoded, so they never increment the spellbook count
+        int sbCount = collectionLoader.load(fileObj, catalogue::containsKey, this::addSpellbook);
+        stats.addCsvBytes(fileObj.length());
+        rowsScanned += sbCount;  // Rows added, as duplicates are skipped before they are parsed
 
-      try (Scanner fileScanner = new Scanner(fileObj)){
-        if (fileScanner.hasNextLine()){
-          fileScanner.nextLine();  // skip header line in csv file
+        if (sbCount == 0){
+          out.println("No spellbooks have been added to the system.");
+        } else {
+          out.println(sbCount + " spellbooks successfully added.");
         }
 
-        while (fileScanner.hasNextLine()) {
-          if (addCommandType.equals("SPELLBOOK")){
-            int specifiedSerialNumber = Integer.parseInt(userInputParts[3]);
-            if (spellbookMap.containsKey(specifiedSerialNumber)) {  // Checking if spellbook has already been added
-              System.out.println("Spellbook already exists in system.");
-              return;
-            }
-
-            String fileNextLine = fileScanner.nextLine();
-            SpellBook sb = parseSpellBookFromLine(fileNextLine);  // Extract line data into an object
-
-            // Check if file entry matches provided spellbook serial number in command
-            if (sb.getSerialNumber() == specifiedSerialNumber) {
-              spellbookMap.put(specifiedSerialNumber, sb);
-              System.out.println("Successfully added: " + sb.getPrintableForm() + ".");
-              spellbookAdded = true;
-              break;
-            }
-          } else { // ADD COLLECTION command
-            String fileNextLine = fileScanner.nextLine();
-            SpellBook sb = parseSpellBookFromLine(fileNextLine);
-            int serialNumber = sb.getSerialNumber();
-
-            if (spellbookMap.containsKey(serialNumber)) {
-              continue; // Skip duplicate to avoid incrementing spellbook count
-            }
-
-            spellbookMap.put(serialNumber, sb);
-            sbCount++;
-          }
-
+      } catch (IOException e) {
+        out.println("No such collection.");
+      }
+    }
+  }
 
-        }
+  private void addCollectionsFromFiles(){
+    try {
+      List<String> paths = new ArrayList<>();
+      for (int i = 2; i < tokens.count(); i++) {
+        paths.add(tokens.token(i));
+      }
+      List<File> files = ParallelCollectionLoader.expandPaths(paths);
 
-        if (addCommandType.equals("SPELLBOOK")){
-          if (!spellbookAdded){
-            System.out.println("No such spellbook in file.");
-          }
-        } else {
-          // ADD COLLECTION
-          if (sbCount == 0){
-            System.out.println("No spellbooks have been added to the system.");
-          } else {
-            System.out.println(sbCount + " spellbooks successfully added.");
-          }
-        }
+      // Files are parsed in parallel but merged in the order given, so the first copy of a serial number wins
+      int sbCount = parallelCollectionLoader.load(files, catalogue::containsKey, this::addSpellbook);
+      for (File file : files) {
+        stats.addCsvBytes(file.length());
+      }
+      rowsScanned += sbCount;
 
-      } catch (FileNotFoundException e) {  // Unique error for each command
-        if (addCommandType.equals("SPELLBOOK")){
-          System.out.println("No such file.");
-        } else {
-          System.out.println("No such collection.");
-        }
+      if (sbCount == 0){
+        out.println("No spellbooks have been added to the system.");
+      } else {
+        out.println(sbCount + " spellbooks successfully added.");
       }
+
+    } catch (IOException e) {
+      out.println("No such collection.");
     }
   }
 
-  private void saveToFile(String[] userInputParts){
-    if (errCheck.checkEmptySpellbooks()) return;
+  private void addSpellbookFromFile(){
+    String filePath = tokens.token(2);
+    File fileObj = new File(filePath);
 
-    String fileName = userInputParts[2];
-    try (FileWriter writer = new FileWriter(fileName)) {
-      writer.append("serialNumber,title,inventor,type\n");  // header line
+    try {
+      CsvOffsetIndex offsetIndex = getCsvOffsetIndex(fileObj);
+      if (offsetIndex.getRowCount() == 0){
+        out.println("No such spellbook in file.");  // Only a header line, so nothing to add
+        return;
+      }
+
+      int specifiedSerialNumber = tokens.parseInt(3);
+      if (catalogue.containsKey(specifiedSerialNumber)) {  // Checking if spellbook has already been added
+        out.println("Spellbook already exists in system.");
+        return;
+      }
+
+      // Seek straight to the first row with the provided serial number rather than reading every line before it
+      String fileLine = offsetIndex.readRow(fileObj, specifiedSerialNumber);
+      if (fileLine == null){
+        out.println("No such spellbook in file.");
+        return;
+      }
+
+      SpellBook sb = MappedCollectionLoader.parseSpellBookFromLine(fileLine);  // Extract line data into an object
+      stats.addCsvBytes(fileLine.length() + 1);
+      addSpellbook(sb);
+      rowsScanned++;
+      out.println("Successfully added: " + sb.getPrintableForm() + ".");
+
+    } catch (FileNotFoundException e) {
+      out.println("No such file.");
+    } catch (IOException e) {
+      out.println("No such spellbook in file.");  // File became unreadable part way through
+    }
+  }
 
-      List<SpellBook> sortedSpellbooks = new ArrayList<>(spellbookMap.values());
-      sortedSpellbooks.sort(Comparator.comparingInt(SpellBook::getSerialNumber));  //Sort entries by serial number
+  private void saveToFile(){
+    if (errCheck.checkEmptySpellbooks()) return;
 
-      for (SpellBook sb : sortedSpellbooks){
-        writer.append(String.valueOf(sb.getSerialNumber())).append(",")
-                .append(sb.getTitle()).append(",")
-                .append(sb.getInventor()).append(",")
-                .append(sb.getType()).append("\n");
+    File fileObj = new File(tokens.token(2));
+    String cacheKey = fileObj.getAbsolutePath();
+    SavedCollection saved;
+
+    // Saves run under the shared catalogue lock, so this monitor keeps two desks from saving the same file at once
+    synchronized (savedCollections) {
+      try {
+        SavedCollection previous = savedCollections.get(cacheKey);
+        saved = previous == null ? SavedCollection.write(fileObj, catalogue) : previous.update(fileObj, catalogue);
+        savedCollections.put(cacheKey, saved);
+      } catch (IOException _) {
+        savedCollections.remove(cacheKey);  // Whatever is on disk now, the next save writes it from scratch
+        out.println("Unable to save collection.");
+        return;
       }
+    }
 
-      System.out.println("Success.");
-    } catch (IOException _) {}  // No error messages necessary for this exception
+    rowsScanned += saved.getRowCount();
+    rowsEmitted += saved.getRowsFormatted();
+
+    if (tokens.hasToken(3, "LONG")) {
+      out.println("Saved " + saved.getRowCount() + " spellbooks (" + saved.getRowsFormatted() + " rewritten), "
+              + saved.getFileSize() + " bytes.");
+    }
+    printSuccess();
   }
 
-  private void printCommon(String[] userInputParts) {
+  private void printCommon() {
     if (errCheck.checkEmptyStudents()) return;
     if (errCheck.checkEmptySpellbooks()) return;
 
-    List<Set<String>> studentHistoriesList = new ArrayList<>();
+    List<Student> students = new ArrayList<>();
     Set<Integer> alreadyAddedStudents = new HashSet<>();  // Used to check if a student is added multiple times
 
-    if (userInputParts.length < 3){
+    if (tokens.count() < 3){
       return;  // Not enough students provided
     }
 
-    // Store each student's rental history into a list
-    for (int i = 1; i < userInputParts.length; i++) {
-      String stringStudentNumber = userInputParts[i];
-      if (!stringStudentNumber.matches("-?\\d+")){  // Make sure provided studentNumber is an integer
-        System.out.println("No such student in system.");
+    // Check every student before comparing any histories
+    for (int i = 1; i < tokens.count(); i++) {
+      if (!tokens.isInteger(i)){  // Make sure provided studentNumber is an integer
+        out.println("No such student in system.");
         return;
       }
 
-      int studentNumber = Integer.parseInt(stringStudentNumber);
+      int studentNumber = tokens.parseInt(i);
       if (!alreadyAddedStudents.add(studentNumber)) {
-        System.out.println("Duplicate students provided.");
+        out.println("Duplicate students provided.");
         return;
       }
       if (errCheck.isMissingStudent(studentNumber)) return;
 
-      Student student = studentMap.get(studentNumber);
-      Set<String> studentHistory = new HashSet<>();
-      for (int serialNumber : student.getHistory()) {
-        SpellBook sb = spellbookMap.get(serialNumber);
-        studentHistory.add(sb.getPrintableForm());
-      }
-
-      studentHistoriesList.add(studentHistory);
+      students.add(studentMap.get(studentNumber));
     }
 
-    // Find common spellbooks
-    Set<String> commonSpellbooks = null;
+    // Intersect starting from the smallest history, so the result is small from the outset and can stop once empty
+    Student smallest = students.get(0);
+    int smallestCount = Integer.MAX_VALUE;
+    for (Student student : students) {
+      synchronized (student) {
+        if (student.getReturnedTitles().cardinality() < smallestCount) {
+          smallest = student;
+          smallestCount = student.getReturnedTitles().cardinality();
+        }
+      }
+    }
 
-    for (Set<String> studentHistory : studentHistoriesList) {
-      if (commonSpellbooks == null) {  // For first student, take whole history
-        commonSpellbooks = new TreeSet<>(studentHistory);  // Tree set used to maintain alphabetical order
-      } else {
-        commonSpellbooks.retainAll(studentHistory);  // Keep only shared items between next student's history
+    CompressedBitmap common;
+    synchronized (smallest) {
+      common = smallest.getReturnedTitles().copy();
+    }
+    rowsScanned += common.cardinality();
+    for (int i = 0; i < students.size() && !common.isEmpty(); i++) {
+      Student student = students.get(i);
+      if (student == smallest) continue;
+      synchronized (student) {
+        rowsScanned += student.getReturnedTitles().cardinality();
+        common.retainAll(student.getReturnedTitles());
       }
     }
 
+    // Codes are in the order titles were first seen, so decode the survivors and sort them
+    Set<String> commonSpellbooks = new TreeSet<>();  // Tree set used to maintain alphabetical order
+    for (int code : common.toArray()) {
+      commonSpellbooks.add(catalogue.decodePrintableForm(code));
+    }
+
     if (commonSpellbooks.isEmpty()){
-      System.out.println("No common spellbooks.");
+      out.println("No common spellbooks.");
       return;
     }
 
     for (String spellbook : commonSpellbooks){
-      System.out.println(spellbook);
+      out.println(spellbook);
     }
+    rowsEmitted += commonSpellbooks.size();
   }
 
   private void printHelpString(){
@@ -455,11 +895,14 @@ public class CommandHandler {
             LIST ALL [LONG] outputs either the short or long string for all spellbooks
             LIST AVAILABLE [LONG] outputs either the short or long string for all available spellbooks
             NUMBER COPIES outputs the number of copies of each spellbook
+            NUMBER AVAILABLE outputs the number of spellbooks available to rent
             LIST TYPES outputs the name of every type in the system
             LIST INVENTORS outputs the name of every inventor in the system
+            LIST ALL|AVAILABLE [LONG] [AFTER <serialNumber>] [LIMIT <count>] outputs one page, ending with the AFTER for the next page
             
             TYPE <type> outputs the short string of every spellbook with the specified type
             INVENTOR <inventor> outputs the short string of every spellbook by the specified inventor
+            SEARCH <text> outputs the short string of every spellbook whose title contains the text, of at least 3 characters
             
             SPELLBOOK <serialNumber> [LONG] outputs either the short or long string for the specified spellbook
             SPELLBOOK HISTORY <serialNumber> outputs the rental history of the specified spellbook
@@ -467,57 +910,123 @@ public class CommandHandler {
             STUDENT <studentNumber> outputs the information of the specified student
             STUDENT SPELLBOOKS <studentNumber> outputs the spellbooks currently rented by the specified student
             STUDENT HISTORY <studentNumber> outputs the rental history of the specified student
+            STUDENT HISTORY and SPELLBOOK HISTORY also take [AFTER <position>] [LIMIT <count>] to output one page
             
             RENT <studentNumber> <serialNumber> loans out the specified spellbook to the given student
             RELINQUISH <studentNumber> <serialNumber> returns the specified spellbook from the student
             RELINQUISH ALL <studentNumber> returns all spellbooks rented by the specified student
+            RENT BATCH [ATOMIC] <studentNumber> <serialNumber> ... loans out every pair, or none if ATOMIC and any pair fails
+            RELINQUISH BATCH [ATOMIC] <studentNumber> <serialNumber> ... returns every pair, or none if ATOMIC and any pair fails
+            RENT BATCH [ATOMIC] FILE <filename> and RELINQUISH BATCH [ATOMIC] FILE <filename> read one pair per line
             
             ADD STUDENT <name> adds a student to the system
             ADD SPELLBOOK <filename> <serialNumber> adds a spellbook to the system
             
             ADD COLLECTION <filename> adds a collection of spellbooks to the system
+            ADD COLLECTIONS <filename|pattern> ... adds several collections in parallel, earlier files winning duplicates
             SAVE COLLECTION <filename> saves the system to a csv file
             
-            COMMON <studentNumber1> <studentNumber2> ... outputs the common spellbooks in students' history""";
+            COMMON <studentNumber1> <studentNumber2> ... outputs the common spellbooks in students' history
+            
+            STATS [RESET] outputs the count, latency and rows of each command since the last reset, or resets them""";
 
-    System.out.println(helpString);
+    out.println(helpString);
   }
 
   // -- Helper methods --
 
-  private void printSpellbooks(Collection<SpellBook> books, boolean longPresent) {
-    List<SpellBook> booksList = new ArrayList<>(books);
-    Collections.sort(booksList, Comparator.comparing(SpellBook::getSerialNumber));  // Sort by serialNumber
+  private void printSuccess() {
+    if (!suppressSuccess) {
+      out.println("Success.");
+    }
+  }
 
-    if (booksList.isEmpty()){
-      System.out.println("No spellbooks available.");
+  // Expects books already in serial number order, so listing is a single walk with no copying or sorting.
+  // Stops after limit books, so a page never reads rows past its end
+  private void printSpellbooks(PrimitiveIterator.OfInt rows, boolean longPresent, int limit) {
+    if (!rows.hasNext()){
+      out.println("No spellbooks available.");
     }
 
     // Prints differently based on whether [LONG] has been provided by user
-    for (int i = 0; i < books.size(); i++) {
-      SpellBook sb = booksList.get(i);
-      System.out.println(longPresent ? sb.getSerialNumber() + ": " + sb.getPrintableForm(longPresent) + "\n" +
-              sb.getRentingStatus(): sb.getPrintableForm(longPresent));
+    int printed = 0;
+    int lastRow = -1;
+    while (rows.hasNext()) {
+      if (printed == limit) {
+        printNextPage(catalogue.getSerialNumber(lastRow));
+        return;
+      }
 
-      if (books.size() > 1 && longPresent && i != books.size() - 1){
-        System.out.println();  // If there's more than one entry, then print empty lines between each spellbook
+      int row = rows.nextInt();
+      if (longPresent && printed > 0){
+        out.println();  // If there's more than one entry, then print empty lines between each spellbook
       }
+      printed++;
+      lastRow = row;
+
+      printSpellbook(row, longPresent);
     }
   }
 
-  private void printSpellbookUniqueAttributes(Function<SpellBook, String> extractor){
-    Set<String> uniqueAttrSet = new HashSet<>();  // Used to avoid repeated values
+  // Reads [AFTER <serialNumber|position>] [LIMIT <count>] in either order, ignoring other tokens as commands do
+  private boolean parsePageOptions(int fromIndex) {
+    hasPageAfter = false;
+    pageLimit = Integer.MAX_VALUE;
 
-    for (SpellBook sb : spellbookMap.values()) {
-      uniqueAttrSet.add(extractor.apply(sb));  // Applies provided function eg. sb.getType() and adds to hashset
+    for (int i = fromIndex; i < tokens.count(); i++) {
+      boolean isAfter = tokens.tokenEquals(i, "AFTER");
+      if (!isAfter && !tokens.tokenEquals(i, "LIMIT")) continue;
+
+      if (i + 1 >= tokens.count() || !tokens.isInteger(i + 1)) {
+        out.println("Invalid page options.");
+        return false;
+      }
+      int value = tokens.parseInt(++i);
+      if (isAfter) {
+        hasPageAfter = true;
+        pageAfter = value;
+      } else if (value > 0) {
+        pageLimit = value;
+      } else {
+        out.println("Invalid page options.");
+        return false;
+      }
     }
+    return true;
+  }
 
-    List<String> sortedAttributesList = new ArrayList<>(uniqueAttrSet);
-    Collections.sort(sortedAttributesList);  // Sort alphabetically
+  // End of a history page starting at fromIndex, one past the limit so a following page can be detected
+  private int pageEnd(int fromIndex) {
+    return (int) Math.min((long) fromIndex + pageLimit + 1, Integer.MAX_VALUE);
+  }
+
+  // Tells the client how to ask for the page after this one
+  private void printNextPage(int cursor) {
+    out.println("More results: AFTER " + cursor + ".");
+  }
 
-    for (String setItem : sortedAttributesList){
-      System.out.println(setItem);
+  // Either prints the short or long string based on longPresent, appending the cached pieces rather than joining them first
+  private void printSpellbook(int row, boolean longPresent){
+    rowsScanned++;
+    rowsEmitted++;
+    if (longPresent) {
+      out.print(catalogue.getSerialNumber(row));
+      out.print(": ");
+      out.print(catalogue.getPrintableForm(row, true));
+      out.print("\n");
+      out.println(catalogue.getRentingStatus(row));
+    } else {
+      out.println(catalogue.getPrintableForm(row, false));
+    }
+  }
+
+  private void printSpellbookUniqueAttributes(SortedMap<String, Integer> attributeCounts){
+    // Each distinct attribute appears once in the counts, already sorted alphabetically
+    for (String attribute : attributeCounts.keySet()){
+      out.println(attribute);
     }
+    rowsScanned += attributeCounts.size();
+    rowsEmitted += attributeCounts.size();
   }
 
   private boolean relinquishHelperMethod(int studentNumber, int serialNumber) {
@@ -525,25 +1034,82 @@ public class CommandHandler {
     if (errCheck.isMissingSpellbook(serialNumber)) return false;
 
     Student student = studentMap.get(studentNumber);
-    SpellBook sb = spellbookMap.get(serialNumber);
+    int row = catalogue.rowOf(serialNumber);
 
     if (errCheck.spellbookNotRentedByStudent(serialNumber, studentNumber)) return false;
 
-    sb.addToHistory(studentNumber);
-    sb.setStudentRenting(NOT_RENTED);
-    student.addToHistory(sb.getSerialNumber());
-    student.removeSpellbook(serialNumber);
+    if (!applyRelinquish(student, row)) {
+      out.println("Unable to return spellbook.");  // Another desk returned it since the check above
+      return false;
+    }
+    return true;
+  }
+
+  // State changes shared by RENT and journal replay. Returns false if the spellbook is already rented
+  private boolean applyRent(Student student, int row) {
+    int serialNumber = catalogue.getSerialNumber(row);
+
+    // The spellbook's lock keeps its rent and return side effects (and journal events) in the order ownership changed
+    synchronized (catalogue.rentalLock(row)) {
+      if (!catalogue.tryRent(row, student.getNumber())) return false;
+
+      synchronized (student) {
+        student.addToCurrentSpellbooks(serialNumber);
+      }
+
+      if (journal != null) {
+        journal.logRent(student.getNumber(), serialNumber);
+      }
+    }
+    return true;
+  }
+
+  // State changes shared by RELINQUISH and journal replay. Returns false if the student is not renting the spellbook
+  private boolean applyRelinquish(Student student, int row) {
+    int serialNumber = catalogue.getSerialNumber(row);
+
+    synchronized (catalogue.rentalLock(row)) {
+      if (!catalogue.tryReturn(row, student.getNumber())) return false;
+
+      catalogue.addToHistory(row, student.getNumber());
+      synchronized (student) {  // Always locked after the spellbook, so desks can never deadlock
+        student.addToHistory(serialNumber);
+        student.addReturnedTitle(catalogue.getPrintableFormCode(row));
+        student.removeSpellbook(serialNumber);
+      }
 
+      if (journal != null) {
+        journal.logRelinquish(student.getNumber(), serialNumber);
+      }
+    }
     return true;
   }
 
-  private SpellBook parseSpellBookFromLine(String line) {
-    String[] lineParts = line.split(",");
-    int serialNumber = Integer.parseInt(lineParts[0]);
-    String title = lineParts[1];
-    String inventor = lineParts[2];
-    String type = lineParts[3];
+  // Every spellbook enters the system through here so each one is journaled
+  private void addSpellbook(SpellBook sb) {
+    catalogue.add(sb);
 
-    return new SpellBook(serialNumber, title, inventor, type);
+    synchronized (savedCollections) {
+      for (SavedCollection saved : savedCollections.values()) {
+        saved.recordAdded(sb.getSerialNumber());  // Picked up by the next save to that file
+      }
+    }
+
+    if (journal != null) {
+      journal.logAddSpellbook(sb);  // Journaled so replayed rentals can find the spellbook
+    }
+  }
+
+  // Reuses the offset index from an earlier ADD SPELLBOOK on the same file, unless the file has since changed
+  private CsvOffsetIndex getCsvOffsetIndex(File fileObj) throws IOException {
+    String cacheKey = fileObj.getAbsolutePath();
+    CsvOffsetIndex offsetIndex = csvOffsetIndexes.get(cacheKey);
+
+    if (offsetIndex == null || offsetIndex.isStale(fileObj)) {
+      offsetIndex = CsvOffsetIndex.build(fileObj);
+      stats.addCsvBytes(fileObj.length());  // Building the index reads the whole file
+      csvOffsetIndexes.put(cacheKey, offsetIndex);
+    }
+    return offsetIndex;
   }
 }
@@ -0,0 +1,109 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Buffered sink for everything the archive prints.
+ * Lines are collected in memory and written to the target {@code Appendable} in one go when
+ * {@link #flush()} is called, so a long listing costs one write instead of one synced write per line.
+ * Once more than {@value #WRITE_THRESHOLD} characters are waiting they are written without waiting
+ * for {@code flush()}, so even a listing of the whole catalogue only ever holds one chunk in memory.
+ */
+public class CommandOutput {
+  private static final String LINE_SEPARATOR = System.lineSeparator();  // Same line endings as println
+  private static final int WRITE_THRESHOLD = 1 << 16;
+
+  private final Appendable target;
+  private final Runnable beforeWrite;
+  private final StringBuilder buffer;
+
+  /**
+   * Constructs a {@code CommandOutput} writing to the given target, eg. {@code System.out} or a {@code StringBuilder}.
+   *
+   * @param target where buffered output is written on each flush
+   */
+  public CommandOutput(Appendable target){
+    this(target, () -> { });
+  }
+
+  /**
+   * Constructs a {@code CommandOutput} that runs an action every time before it writes to the target,
+   * eg. committing the journal so no output is shown before the changes it acknowledges are durable.
+   *
+   * @param target      where buffered output is written
+   * @param beforeWrite run before each write, may throw {@code UncheckedIOException} to fail it
+   */
+  public CommandOutput(Appendable target, Runnable beforeWrite){
+    this.target = target;
+    this.beforeWrite = beforeWrite;
+    this.buffer = new StringBuilder(8192);
+  }
+
+  public void print(String text){
+    buffer.append(text);
+    writeIfFull();
+  }
+
+  public void print(int number){
+    buffer.append(number);
+    writeIfFull();
+  }
+
+  public void println(String line){
+    buffer.append(line).append(LINE_SEPARATOR);
+    writeIfFull();
+  }
+
+  public void println(int number){
+    buffer.append(number).append(LINE_SEPARATOR);
+    writeIfFull();
+  }
+
+  public void println(){
+    buffer.append(LINE_SEPARATOR);
+    writeIfFull();
+  }
+
+  /**
+   * Returns the number of characters waiting to be flushed.
+   *
+   * @return the buffered length
+   */
+  public int length(){
+    return buffer.length();
+  }
+
+  /**
+   * Writes all buffered output to the target and flushes the target if it supports flushing.
+   *
+   * @throws UncheckedIOException if the target cannot be written to
+   */
+  public void flush(){
+    write();
+    if (target instanceof Flushable flushableTarget) {
+      try {
+        flushableTarget.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // Leaves flushing the target to flush(), which comes at the end of the command anyway
+  private void writeIfFull(){
+    if (buffer.length() >= WRITE_THRESHOLD) {
+      write();
+    }
+  }
+
+  private void write(){
+    try {
+      beforeWrite.run();
+      target.append(buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      buffer.setLength(0);
+    }
+  }
+}
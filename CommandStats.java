@@ -0,0 +1,175 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for every command verb, shared by all desks of an archive and printed
+ * by {@code STATS}. Recording a command only adds to preallocated counters, so it never allocates, and
+ * counters are striped so desks recording at once rarely contend: the totals are {@code LongAdder}s, and
+ * each histogram has one row of buckets per stripe, picked by thread, which are summed when printed.
+ *
+ * <p>Latencies go into an HDR-style log-linear histogram: exact below {@value #SUB_BUCKETS} ns, then
+ * {@value #SUB_BUCKETS} buckets per power of two, so every percentile is within about 6% of the true value
+ * across the whole range from nanoseconds to minutes, in a fixed 960 buckets per verb.
+ */
+public class CommandStats {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;  // Covers every positive long
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+  private static final int MAX_STRIPES = 16;  // Each stripe is about 110 KiB of buckets across every verb
+  private static final int STRIPES = Integer.highestOneBit(
+          Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES));  // Power of two
+
+  private final VerbStats[] verbs;  // Indexed by CommandVerb ordinal
+  private final LongAdder csvBytesParsed;
+
+  /**
+   * Constructs an empty {@code CommandStats}.
+   */
+  public CommandStats(){
+    this.verbs = new VerbStats[CommandVerb.values().length];
+    for (int i = 0; i < verbs.length; i++) {
+      verbs[i] = new VerbStats();
+    }
+    this.csvBytesParsed = new LongAdder();
+  }
+
+  /**
+   * Records one handled command.
+   *
+   * @param verb         the command's verb
+   * @param nanos        how long the command took, including waiting for the catalogue lock
+   * @param rowsScanned  catalogue rows, history entries or distinct values the command read
+   * @param rowsEmitted  result rows the command printed or wrote
+   */
+  public void record(CommandVerb verb, long nanos, long rowsScanned, long rowsEmitted){
+    VerbStats stats = verbs[verb.ordinal()];
+    stats.count.increment();
+    stats.totalNanos.add(nanos);
+    stats.maxNanos.accumulate(nanos);
+    int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+    stats.histogram.getAndIncrement(stripe * BUCKET_COUNT + bucketOf(nanos));
+    if (rowsScanned != 0) stats.rowsScanned.add(rowsScanned);
+    if (rowsEmitted != 0) stats.rowsEmitted.add(rowsEmitted);
+  }
+
+  /**
+   * Records csv bytes read while adding spellbooks.
+   *
+   * @param bytes the number of bytes parsed
+   */
+  public void addCsvBytes(long bytes){
+    csvBytesParsed.add(bytes);
+  }
+
+  /**
+   * Clears every counter and histogram. Commands recorded while resetting may be partly kept.
+   */
+  public void reset(){
+    for (VerbStats stats : verbs) {
+      stats.count.reset();
+      stats.totalNanos.reset();
+      stats.maxNanos.reset();
+      stats.rowsScanned.reset();
+      stats.rowsEmitted.reset();
+      for (int i = 0; i < stats.histogram.length(); i++) {
+        stats.histogram.set(i, 0);
+      }
+    }
+    csvBytesParsed.reset();
+  }
+
+  /**
+   * Prints one line per verb that has been used, with its count, latency percentiles and rows, then the csv
+   * bytes parsed. Latencies are in microseconds.
+   *
+   * @param out sink to print to
+   */
+  public void printTo(CommandOutput out){
+    boolean anyRecorded = false;
+
+    for (CommandVerb verb : CommandVerb.values()) {
+      VerbStats stats = verbs[verb.ordinal()];
+      long count = stats.count.sum();
+      if (count == 0) continue;
+      anyRecorded = true;
+
+      StringBuilder line = new StringBuilder(160);
+      line.append(verb.name()).append(": ").append(count).append(count == 1 ? " command" : " commands");
+      line.append(", mean ").append(micros(stats.totalNanos.sum() / count)).append(" us");
+      long[] percentiles = stats.percentiles();
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        line.append(", p").append(Math.round(PERCENTILES[i] * 100)).append(' ').append(micros(percentiles[i])).append(" us");
+      }
+      line.append(", max ").append(micros(stats.maxNanos.get())).append(" us");
+      line.append(", ").append(stats.rowsScanned.sum()).append(" rows scanned");
+      line.append(", ").append(stats.rowsEmitted.sum()).append(" rows emitted.");
+      out.println(line.toString());
+    }
+
+    if (!anyRecorded) {
+      out.println("No commands recorded.");
+    }
+    out.println("CSV bytes parsed: " + csvBytesParsed.sum() + ".");
+  }
+
+  // Exact below SUB_BUCKETS, then SUB_BUCKETS linear buckets for each power of two
+  private static int bucketOf(long nanos){
+    if (nanos < SUB_BUCKETS) return (int) Math.max(nanos, 0);
+
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  // Largest value that falls in the bucket, as HDR histograms report percentiles
+  private static long highestValueIn(int bucket){
+    if (bucket < SUB_BUCKETS) return bucket;
+
+    int block = bucket / SUB_BUCKETS;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (block - 1);
+    return lowest + (1L << (block - 1)) - 1;
+  }
+
+  private static String micros(long nanos){
+    return String.format("%.1f", nanos / 1000.0);
+  }
+
+  /**
+   * Counters for one verb.
+   */
+  private static class VerbStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder rowsEmitted = new LongAdder();
+    // Stripe after stripe of BUCKET_COUNT buckets, each stripe far enough from the next to share no cache line
+    private final AtomicLongArray histogram = new AtomicLongArray(STRIPES * BUCKET_COUNT);
+
+    // Sums the stripes, then walks the histogram once, capping each percentile at the recorded maximum
+    long[] percentiles(){
+      long[] counts = new long[BUCKET_COUNT];
+      long total = 0;
+      for (int i = 0; i < histogram.length(); i++) {
+        counts[i % BUCKET_COUNT] += histogram.get(i);
+      }
+      for (long count : counts) {
+        total += count;
+      }
+
+      long[] values = new long[PERCENTILES.length];
+      long max = maxNanos.get();
+      long seen = 0;
+      int next = 0;
+      for (int i = 0; i < BUCKET_COUNT && next < PERCENTILES.length; i++) {
+        seen += counts[i];
+        while (next < PERCENTILES.length && seen > 0 && seen >= Math.ceil(PERCENTILES[next] * total)) {
+          values[next++] = Math.min(highestValueIn(i), max);
+        }
+      }
+      return values;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+/**
+ * Splits a command line into space-separated tokens by recording where each token starts and ends,
+ * without copying the line or building a {@code String} per token. Keywords are compared and numbers
+ * parsed straight from the line, so handling a typical command allocates nothing.
+ *
+ * <p>Tokens follow {@code line.split(" ")} exactly: consecutive spaces give empty tokens, trailing
+ * empty tokens are dropped, and a line without spaces is a single token, even when it is empty.
+ * Accessing a missing token throws {@code ArrayIndexOutOfBoundsException} and parsing a token that is
+ * not a number throws {@code NumberFormatException}, as indexing and parsing the split array would.
+ *
+ * <p>A tokenizer is reused for every command, so it is not thread-safe; each handler owns one.
+ */
+public class CommandTokenizer {
+  private CharSequence line;
+  private int[] starts;
+  private int[] ends;
+  private int count;
+
+  /**
+   * Constructs an empty {@code CommandTokenizer}.
+   */
+  public CommandTokenizer(){
+    this.starts = new int[8];
+    this.ends = new int[8];
+  }
+
+  /**
+   * Tokenizes a new command line, replacing the previous one.
+   *
+   * @param line the raw command entered by the user
+   */
+  public void reset(CharSequence line){
+    this.line = line;
+    this.count = 0;
+
+    int tokenStart = 0;
+    int lastNonEmpty = 0;  // Token count up to and including the last non-empty token
+    for (int i = 0; i < line.length(); i++) {
+      if (line.charAt(i) == ' ') {
+        addToken(tokenStart, i);
+        if (i > tokenStart) lastNonEmpty = count;
+        tokenStart = i + 1;
+      }
+    }
+
+    if (count == 0) {
+      addToken(0, line.length());  // No spaces, so the whole line is the only token
+      return;
+    }
+    addToken(tokenStart, line.length());
+    if (line.length() > tokenStart) lastNonEmpty = count;
+    count = lastNonEmpty;  // Trailing empty tokens are dropped
+  }
+
+  public int count(){
+    return count;
+  }
+
+  /**
+   * Returns whether a token matches a keyword, ignoring case.
+   *
+   * @param index   the token's position, starting at 0 for the verb
+   * @param keyword the keyword to compare against, eg. {@code "LONG"}
+   * @return {@code true} if the token equals the keyword ignoring case, otherwise {@code false}
+   * @throws ArrayIndexOutOfBoundsException if there is no such token
+   */
+  public boolean tokenEquals(int index, String keyword){
+    checkIndex(index);
+    int length = ends[index] - starts[index];
+    if (length != keyword.length()) return false;
+
+    for (int i = 0; i < length; i++) {
+      char c = line.charAt(starts[index] + i);
+      char k = keyword.charAt(i);
+      // Same per-character folding as String.equalsIgnoreCase
+      if (c != k && Character.toUpperCase(c) != Character.toUpperCase(k)
+              && Character.toLowerCase(Character.toUpperCase(c)) != Character.toLowerCase(Character.toUpperCase(k))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a token exists and matches a keyword, ignoring case. Used for optional keywords such as {@code LONG}.
+   *
+   * @param index   the token's position
+   * @param keyword the keyword to compare against
+   * @return {@code true} if the token exists and equals the keyword ignoring case, otherwise {@code false}
+   */
+  public boolean hasToken(int index, String keyword){
+    return index < count && tokenEquals(index, keyword);
+  }
+
+  /**
+   * Parses a token as a decimal integer in place.
+   *
+   * @param index the token's position
+   * @return the parsed value
+   * @throws ArrayIndexOutOfBoundsException if there is no such token
+   * @throws NumberFormatException if the token is not an integer
+   */
+  public int parseInt(int index){
+    checkIndex(index);
+    return Integer.parseInt(line, starts[index], ends[index], 10);
+  }
+
+  /**
+   * Returns whether a token is an optional minus sign followed by one or more ASCII digits.
+   *
+   * @param index the token's position
+   * @return {@code true} if the token looks like an integer, otherwise {@code false}
+   * @throws ArrayIndexOutOfBoundsException if there is no such token
+   */
+  public boolean isInteger(int index){
+    checkIndex(index);
+    int start = starts[index];
+    if (start < ends[index] && line.charAt(start) == '-') start++;
+    if (start == ends[index]) return false;
+
+    for (int i = start; i < ends[index]; i++) {
+      char c = line.charAt(i);
+      if (c < '0' || c > '9') return false;
+    }
+    return true;
+  }
+
+  /**
+   * Copies a token out as a string, eg. for a file name.
+   *
+   * @param index the token's position
+   * @return the token
+   * @throws ArrayIndexOutOfBoundsException if there is no such token
+   */
+  public String token(int index){
+    checkIndex(index);
+    return line.subSequence(starts[index], ends[index]).toString();
+  }
+
+  /**
+   * Returns the tokens from {@code fromIndex} onwards joined by single spaces, eg. a multi-word name.
+   * Because tokens are split on single spaces, this is the original text of the line from that token on,
+   * without trailing spaces.
+   *
+   * @param fromIndex the first token's position
+   * @return the remaining text, or an empty string if there are no tokens from that position
+   */
+  public String rest(int fromIndex){
+    if (fromIndex >= count) return "";
+    return line.subSequence(starts[fromIndex], ends[count - 1]).toString();
+  }
+
+  // First character of a token, folded to upper case, or 0 for an empty token
+  char upperFirstChar(int index){
+    checkIndex(index);
+    return starts[index] == ends[index] ? 0 : Character.toUpperCase(line.charAt(starts[index]));
+  }
+
+  private void addToken(int start, int end){
+    if (count == starts.length) {
+      starts = Arrays.copyOf(starts, count * 2);
+      ends = Arrays.copyOf(ends, count * 2);
+    }
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+
+  private void checkIndex(int index){
+    if (index >= count) {
+      throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+    }
+  }
+}
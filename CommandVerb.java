@@ -0,0 +1,42 @@
+/**
+ * Verbs that start a command, with a lookup table built once so finding a command's verb compares
+ * its first token against at most a few candidates instead of upper-casing it and switching on the copy.
+ */
+public enum CommandVerb {
+  EXIT, COMMANDS, LIST, NUMBER, TYPE, INVENTOR, SEARCH, SPELLBOOK, STUDENT, RENT, RELINQUISH, ADD, SAVE, COMMON, STATS;
+
+  private static final CommandVerb[][] BY_FIRST_LETTER = new CommandVerb['Z' - 'A' + 1][];
+
+  static {
+    for (char letter = 'A'; letter <= 'Z'; letter++) {
+      int candidateCount = 0;
+      for (CommandVerb verb : values()) {
+        if (verb.name().charAt(0) == letter) candidateCount++;
+      }
+
+      CommandVerb[] candidates = new CommandVerb[candidateCount];
+      int i = 0;
+      for (CommandVerb verb : values()) {
+        if (verb.name().charAt(0) == letter) candidates[i++] = verb;
+      }
+      BY_FIRST_LETTER[letter - 'A'] = candidates;
+    }
+  }
+
+  /**
+   * Finds the verb of a tokenized command, ignoring case.
+   *
+   * @param tokens the tokenized command
+   * @return the matching verb, or {@code null} if the first token is not a known verb
+   * @throws ArrayIndexOutOfBoundsException if the command has no tokens, eg. a line of only spaces
+   */
+  public static CommandVerb lookup(CommandTokenizer tokens){
+    char firstChar = tokens.upperFirstChar(0);
+    if (firstChar < 'A' || firstChar > 'Z') return null;
+
+    for (CommandVerb verb : BY_FIRST_LETTER[firstChar - 'A']) {
+      if (tokens.tokenEquals(0, verb.name())) return verb;
+    }
+    return null;
+  }
+}
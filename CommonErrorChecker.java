@@ -6,29 +6,32 @@ import java.util.Map;
  */
 public class CommonErrorChecker {
   private Map<Integer, Student> studentMap;
-  private Map<Integer, SpellBook> spellbookMap;
+  private SpellbookCatalogue catalogue;
+  private CommandOutput out;
 
   /**
-   * Constructs a {@code CommonErrorChecker} with the given student and spellbook maps.
+   * Constructs a {@code CommonErrorChecker} with the given student map and spellbook catalogue.
    *
-   * @param studentMap    map of student IDs to {@code Student} objects
-   * @param spellbookMap  map of spellbook serial numbers to {@code SpellBook} objects
+   * @param studentMap     map of student IDs to {@code Student} objects
+   * @param catalogue      storage engine holding every spellbook
+   * @param out            sink that error messages are printed to
    */
-  public CommonErrorChecker(Map<Integer, Student> studentMap, Map<Integer, SpellBook> spellbookMap){
+  public CommonErrorChecker(Map<Integer, Student> studentMap, SpellbookCatalogue catalogue, CommandOutput out){
     this.studentMap = studentMap;
-    this.spellbookMap = spellbookMap;
+    this.catalogue = catalogue;
+    this.out = out;
   }
 
   /**
-   * Checks if the spellbook map is empty.
+   * Checks if the spellbook store is empty.
    * Prints an error message if no spellbooks are present.
    *
    * @return {@code true} if an error is found, otherwise {@code false}
    */
   public boolean checkEmptySpellbooks(){
     boolean errorsPresent = false;
-    if (spellbookMap.isEmpty()){
-      System.out.println("No spellbooks in system.");
+    if (catalogue.isEmpty()){
+      out.println("No spellbooks in system.");
       errorsPresent = true;
     }
     return errorsPresent;
@@ -43,7 +46,7 @@ public class CommonErrorChecker {
   public boolean checkEmptyStudents(){
     boolean errorsPresent = false;
     if (studentMap.isEmpty()){
-      System.out.println("No students in system.");
+      out.println("No students in system.");
       errorsPresent = true;
     }
     return errorsPresent;
@@ -59,7 +62,7 @@ public class CommonErrorChecker {
   public boolean isMissingStudent(int studentNumber) {
     boolean errorsPresent = false;
     if (!studentMap.containsKey(studentNumber)) {
-      System.out.println("No such student in system.");
+      out.println("No such student in system.");
       errorsPresent = true;
     }
     return errorsPresent;
@@ -74,8 +77,8 @@ public class CommonErrorChecker {
    */
   public boolean isMissingSpellbook(int serialNumber) {
     boolean errorsPresent = false;
-    if (!spellbookMap.containsKey(serialNumber)) {
-      System.out.println("No such spellbook in system.");
+    if (!catalogue.containsKey(serialNumber)) {
+      out.println("No such spellbook in system.");
       errorsPresent = true;
     }
     return errorsPresent;
@@ -91,8 +94,8 @@ public class CommonErrorChecker {
    */
   public boolean spellbookNotRentedByStudent(int serialNumber, int studentNumber){
     boolean errorsPresent = false;
-    if (spellbookMap.get(serialNumber).getStudentRenting() != studentNumber) {
-      System.out.println("Unable to return spellbook.");
+    if (catalogue.getStudentRenting(catalogue.rowOf(serialNumber)) != studentNumber) {
+      out.println("Unable to return spellbook.");
       errorsPresent = true;
     }
     return errorsPresent;
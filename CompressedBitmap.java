@@ -0,0 +1,328 @@
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative {@code int}s in the style of a roaring bitmap. Values are grouped by
+ * their high 16 bits into containers: a container holding few values keeps them as a sorted array,
+ * and one holding many keeps a 65536-bit bitmap, so sparse and dense sets both stay small.
+ *
+ * <p>Intersecting two sets only compares containers with the same high bits, merging sorted arrays,
+ * probing a bitmap for each array value, or ANDing bitmaps a word at a time.
+ *
+ * <p>Not synchronized: callers hold the owner's monitor while changing or reading a bitmap.
+ */
+public class CompressedBitmap {
+  private static final int ARRAY_CONTAINER_MAX = 4096;  // Past this, a bitmap container is smaller
+  private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+  private static final int INITIAL_CONTAINERS = 4;
+
+  private int[] keys;  // High 16 bits of each container's values, ascending
+  private Container[] containers;
+  private int containerCount;
+  private int cardinality;
+
+  /**
+   * Constructs an empty {@code CompressedBitmap}.
+   */
+  public CompressedBitmap(){
+    this.keys = new int[INITIAL_CONTAINERS];
+    this.containers = new Container[INITIAL_CONTAINERS];
+  }
+
+  public int cardinality(){
+    return cardinality;
+  }
+
+  public boolean isEmpty(){
+    return cardinality == 0;
+  }
+
+  public boolean contains(int value){
+    int index = findContainer(value >>> 16);
+    return index >= 0 && containers[index].contains((char) value);
+  }
+
+  /**
+   * Adds a value to the set.
+   *
+   * @param value the value to add, not negative
+   * @return {@code true} if the value was not already in the set
+   */
+  public boolean add(int value){
+    int key = value >>> 16;
+    int index = findContainer(key);
+    if (index < 0) {
+      index = -(index + 1);
+      insertContainer(index, key, new ArrayContainer());
+    }
+
+    Container container = containers[index];
+    int before = container.cardinality();
+    containers[index] = container.add((char) value);  // May turn an array container into a bitmap
+    if (containers[index].cardinality() == before) return false;
+
+    cardinality++;
+    return true;
+  }
+
+  /**
+   * Removes every value not also in {@code other}, keeping this set's containers where possible.
+   *
+   * @param other the set to intersect with, left unchanged
+   */
+  public void retainAll(CompressedBitmap other){
+    int kept = 0;
+    int otherIndex = 0;
+    cardinality = 0;
+
+    // Both key arrays are ascending, so shared containers are found in one merge
+    for (int index = 0; index < containerCount; index++) {
+      while (otherIndex < other.containerCount && other.keys[otherIndex] < keys[index]) {
+        otherIndex++;
+      }
+      if (otherIndex == other.containerCount) break;
+      if (other.keys[otherIndex] != keys[index]) continue;
+
+      Container intersection = containers[index].and(other.containers[otherIndex]);
+      if (intersection.cardinality() > 0) {
+        keys[kept] = keys[index];
+        containers[kept] = intersection;
+        cardinality += intersection.cardinality();
+        kept++;
+      }
+    }
+
+    Arrays.fill(containers, kept, containerCount, null);
+    containerCount = kept;
+  }
+
+  /**
+   * Copies the set, so the copy can be intersected without changing this one.
+   *
+   * @return an equal, independent bitmap
+   */
+  public CompressedBitmap copy(){
+    CompressedBitmap copy = new CompressedBitmap();
+    copy.keys = Arrays.copyOf(keys, Math.max(containerCount, INITIAL_CONTAINERS));
+    copy.containers = new Container[copy.keys.length];
+    for (int index = 0; index < containerCount; index++) {
+      copy.containers[index] = containers[index].copy();
+    }
+    copy.containerCount = containerCount;
+    copy.cardinality = cardinality;
+    return copy;
+  }
+
+  /**
+   * Copies the values into an array.
+   *
+   * @return the values in ascending order
+   */
+  public int[] toArray(){
+    int[] values = new int[cardinality];
+    int count = 0;
+    for (int index = 0; index < containerCount; index++) {
+      count = containers[index].copyTo(values, count, keys[index] << 16);
+    }
+    return values;
+  }
+
+  // Binary search over the container keys, following the Arrays.binarySearch return convention
+  private int findContainer(int key){
+    return Arrays.binarySearch(keys, 0, containerCount, key);
+  }
+
+  private void insertContainer(int index, int key, Container container){
+    if (containerCount == keys.length) {
+      keys = Arrays.copyOf(keys, containerCount * 2);
+      containers = Arrays.copyOf(containers, containerCount * 2);
+    }
+    System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+    System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+    keys[index] = key;
+    containers[index] = container;
+    containerCount++;
+  }
+
+  /**
+   * The low 16 bits of the values sharing one key.
+   */
+  private abstract static class Container {
+    abstract int cardinality();
+
+    abstract boolean contains(char low);
+
+    // Returns the container now holding the values, which may be a converted replacement
+    abstract Container add(char low);
+
+    // Intersects with another container, reusing this one's storage where it can
+    abstract Container and(Container other);
+
+    abstract Container copy();
+
+    // Writes key | low for each value in ascending order, returning the next free position
+    abstract int copyTo(int[] values, int position, int key);
+  }
+
+  private static final class ArrayContainer extends Container {
+    private char[] lows;  // Ascending
+    private int size;
+
+    ArrayContainer(){
+      this.lows = new char[4];
+    }
+
+    ArrayContainer(char[] lows, int size){
+      this.lows = lows;
+      this.size = size;
+    }
+
+    @Override
+    int cardinality() {
+      return size;
+    }
+
+    @Override
+    boolean contains(char low) {
+      return Arrays.binarySearch(lows, 0, size, low) >= 0;
+    }
+
+    @Override
+    Container add(char low) {
+      int index = Arrays.binarySearch(lows, 0, size, low);
+      if (index >= 0) return this;
+
+      if (size == ARRAY_CONTAINER_MAX) {
+        return toBitmap().add(low);
+      }
+      index = -(index + 1);
+      if (size == lows.length) {
+        lows = Arrays.copyOf(lows, Math.min(size * 2, ARRAY_CONTAINER_MAX));
+      }
+      System.arraycopy(lows, index, lows, index + 1, size - index);
+      lows[index] = low;
+      size++;
+      return this;
+    }
+
+    @Override
+    Container and(Container other) {
+      int kept = 0;
+      if (other instanceof ArrayContainer array) {
+        // Merge of two sorted arrays
+        for (int i = 0, j = 0; i < size && j < array.size; ) {
+          if (lows[i] < array.lows[j]) {
+            i++;
+          } else if (lows[i] > array.lows[j]) {
+            j++;
+          } else {
+            lows[kept++] = lows[i++];
+            j++;
+          }
+        }
+      } else {
+        for (int i = 0; i < size; i++) {
+          if (other.contains(lows[i])) lows[kept++] = lows[i];
+        }
+      }
+      size = kept;
+      return this;
+    }
+
+    @Override
+    Container copy() {
+      return new ArrayContainer(Arrays.copyOf(lows, Math.max(size, 1)), size);
+    }
+
+    @Override
+    int copyTo(int[] values, int position, int key) {
+      for (int i = 0; i < size; i++) {
+        values[position++] = key | lows[i];
+      }
+      return position;
+    }
+
+    private BitmapContainer toBitmap(){
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < size; i++) {
+        bitmap.add(lows[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(){
+      this.words = new long[BITMAP_WORDS];
+    }
+
+    BitmapContainer(long[] words, int cardinality){
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char low) {
+      return (words[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    Container add(char low) {
+      long word = words[low >>> 6];
+      long bit = 1L << low;
+      if ((word & bit) == 0) {
+        words[low >>> 6] = word | bit;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) {
+        return other.copy().and(this);  // The result is no larger than the array, so keep it as one
+      }
+
+      long[] otherWords = ((BitmapContainer) other).words;
+      cardinality = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        words[i] &= otherWords[i];
+        cardinality += Long.bitCount(words[i]);
+      }
+      return cardinality <= ARRAY_CONTAINER_MAX ? toArrayContainer() : this;
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    int copyTo(int[] values, int position, int key) {
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          values[position++] = key | (i << 6) + Long.numberOfTrailingZeros(word);
+        }
+      }
+      return position;
+    }
+
+    private ArrayContainer toArrayContainer(){
+      char[] lows = new char[Math.max(cardinality, 1)];
+      int size = 0;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          lows[size++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+        }
+      }
+      return new ArrayContainer(lows, size);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Index from spellbook serial number to the byte offset of its row in a spellbook csv file.
+ * Built with a single pass over the file, so repeated {@code ADD SPELLBOOK} commands against the same
+ * file can seek straight to the requested row instead of re-reading every line before it.
+ * The index remembers the file's size and modification time, and callers should rebuild it once
+ * {@link #isStale(File)} reports that the file has changed.
+ */
+public class CsvOffsetIndex {
+  private static final int READ_BUFFER_SIZE = 1 << 20;  // 1 MiB reads while indexing
+  private static final int ROW_BUFFER_SIZE = 256;  // Typical row fits in one read
+
+  private final long fileSize;
+  private final long lastModified;
+  private final int rowCount;
+  private final int[] serialNumbers;  // Sorted, one entry per distinct serial number
+  private final long[] rowOffsets;  // Offset of the first row holding the matching serial number
+
+  private CsvOffsetIndex(long fileSize, long lastModified, int rowCount, int[] serialNumbers, long[] rowOffsets){
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    this.rowCount = rowCount;
+    this.serialNumbers = serialNumbers;
+    this.rowOffsets = rowOffsets;
+  }
+
+  /**
+   * Scans a spellbook csv file once and records where each serial number's row starts.
+   * The header line is skipped, and rows whose serial number cannot be parsed are left out of the index.
+   * When a serial number appears more than once, only its first row is kept.
+   *
+   * @param file the csv file to index
+   * @return the index for the file's current contents
+   * @throws java.io.FileNotFoundException if the file does not exist or cannot be opened
+   * @throws IOException if the file cannot be read
+   */
+  public static CsvOffsetIndex build(File file) throws IOException {
+    long lastModified = file.lastModified();
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      long fileSize = channel.size();
+      ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+      // Each entry packs (serialNumber, row) so one sort orders by serial number, then by position in file
+      long[] keyedRows = new long[1024];
+      long[] offsets = new long[1024];
+      int rowCount = 0;
+
+      boolean inHeader = true;
+      boolean atLineStart = false;
+      boolean parsing = false;  // Still reading the serial number digits of the current row
+      boolean negative = false;
+      boolean valid = false;  // Serial number so far is in int range and ends in a comma
+      long serial = 0;
+      long lineStart = 0;
+      long position = 0;
+
+      while (channel.read(buffer) > 0) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          byte b = buffer.get();
+
+          if (atLineStart) {
+            // A new row begins at this byte
+            if (rowCount == offsets.length) {
+              keyedRows = Arrays.copyOf(keyedRows, rowCount * 2);
+              offsets = Arrays.copyOf(offsets, rowCount * 2);
+            }
+            lineStart = position;
+            atLineStart = false;
+            parsing = true;
+            negative = false;
+            valid = false;
+            serial = 0;
+
+            if (b == '-' || b == '+') {
+              negative = b == '-';
+              position++;
+              continue;
+            }
+          }
+
+          if (b == '\n') {
+            if (!inHeader) {
+              rowCount = recordRow(keyedRows, offsets, rowCount, !parsing && valid, negative ? -serial : serial,
+                      lineStart);
+            }
+            inHeader = false;
+            atLineStart = true;
+          } else if (parsing && !inHeader) {
+            if (b >= '0' && b <= '9') {
+              serial = serial * 10 + (b - '0');
+              valid = serial <= (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE);
+              parsing = valid;  // Out of int range, so this row can never match
+            } else {
+              // The serial number column ends at the first comma, anything else makes it unparseable
+              valid = valid && b == ',';
+              parsing = false;
+            }
+          }
+          position++;
+        }
+        buffer.clear();
+      }
+
+      if (!inHeader && !atLineStart) {
+        rowCount = recordRow(keyedRows, offsets, rowCount, !parsing && valid, negative ? -serial : serial, lineStart);
+      }
+
+      return fromRows(fileSize, lastModified, keyedRows, offsets, rowCount);
+    }
+  }
+
+  /**
+   * Checks whether the file has been modified since this index was built.
+   *
+   * @param file the csv file this index was built from
+   * @return {@code true} if the file's size or modification time no longer match
+   */
+  public boolean isStale(File file){
+    return file.length() != fileSize || file.lastModified() != lastModified;
+  }
+
+  /**
+   * Returns the number of data rows (excluding the header) in the indexed file.
+   *
+   * @return the row count, including rows whose serial number could not be parsed
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Reads the first row holding the given serial number.
+   *
+   * @param file         the csv file this index was built from
+   * @param serialNumber the serial number to look up
+   * @return the row without its line terminator, or {@code null} if no row has that serial number
+   * @throws IOException if the file cannot be read
+   */
+  public String readRow(File file, int serialNumber) throws IOException {
+    int index = Arrays.binarySearch(serialNumbers, serialNumber);
+    if (index < 0) {
+      return null;
+    }
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      long offset = rowOffsets[index];
+      ByteBuffer buffer = ByteBuffer.allocate(ROW_BUFFER_SIZE);
+
+      // Keep reading until the end of the row, growing the buffer for unusually long rows
+      while (true) {
+        if (!buffer.hasRemaining()) {
+          buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+        }
+        int read = channel.read(buffer, offset + buffer.position());
+        int rowEnd = indexOfNewline(buffer);
+        if (rowEnd >= 0 || read < 0) {
+          int length = rowEnd >= 0 ? rowEnd : buffer.position();
+          if (length > 0 && buffer.get(length - 1) == '\r') {
+            length--;  // Windows line ending
+          }
+          return new String(buffer.array(), 0, length, Charset.defaultCharset());
+        }
+      }
+    }
+  }
+
+  private static int recordRow(long[] keyedRows, long[] offsets, int rowCount, boolean parsed, long serialNumber,
+                               long lineStart){
+    // Rows without a readable serial number still count as rows, but sort after every real row and are dropped
+    keyedRows[rowCount] = parsed ? (serialNumber << 32) | rowCount : Long.MAX_VALUE;
+    offsets[rowCount] = lineStart;
+    return rowCount + 1;
+  }
+
+  private static CsvOffsetIndex fromRows(long fileSize, long lastModified, long[] keyedRows, long[] offsets,
+                                         int rowCount){
+    long[] sortedRows = Arrays.copyOf(keyedRows, rowCount);
+    Arrays.sort(sortedRows);
+
+    int[] serialNumbers = new int[rowCount];
+    long[] rowOffsets = new long[rowCount];
+    int distinct = 0;
+
+    for (long keyedRow : sortedRows) {
+      if (keyedRow == Long.MAX_VALUE) break;
+
+      int serialNumber = (int) (keyedRow >> 32);
+      if (distinct > 0 && serialNumbers[distinct - 1] == serialNumber) {
+        continue;  // Later duplicate of a serial number, the first row in the file wins
+      }
+      serialNumbers[distinct] = serialNumber;
+      rowOffsets[distinct] = offsets[(int) keyedRow];
+      distinct++;
+    }
+
+    return new CsvOffsetIndex(fileSize, lastModified, rowCount, Arrays.copyOf(serialNumbers, distinct),
+            Arrays.copyOf(rowOffsets, distinct));
+  }
+
+  private static int indexOfNewline(ByteBuffer buffer){
+    for (int i = 0; i < buffer.position(); i++) {
+      if (buffer.get(i) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
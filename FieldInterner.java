@@ -0,0 +1,88 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Decodes csv fields straight from file bytes, returning the same {@code String} instance each time
+ * the same bytes are seen. Titles, inventors and types repeat across many copies, so after the first
+ * copy of a spellbook its fields cost a hash and a byte comparison instead of a new {@code String}.
+ *
+ * <p>The cache is a fixed-size open-addressing table that is emptied once half full, so a file with
+ * very many distinct values cannot make it grow without bound. An instance reuses a scratch buffer,
+ * so it must not be shared between threads.
+ */
+public class FieldInterner {
+  private static final int CAPACITY = 1 << 12;  // Power of two
+  private static final int MAX_ENTRIES = CAPACITY / 2;
+  private static final int SLOT_SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(CAPACITY);
+
+  private final Charset charset;
+  private final byte[][] keys;
+  private final int[] hashes;
+  private final String[] values;
+  private byte[] scratch;
+  private int size;
+
+  /**
+   * Constructs an empty {@code FieldInterner}.
+   *
+   * @param charset charset the csv file is decoded with
+   */
+  public FieldInterner(Charset charset){
+    this.charset = charset;
+    this.keys = new byte[CAPACITY][];
+    this.hashes = new int[CAPACITY];
+    this.values = new String[CAPACITY];
+    this.scratch = new byte[256];
+  }
+
+  /**
+   * Decodes the bytes in {@code [start, end)}, reusing the string decoded last time they were seen.
+   *
+   * @param buffer the bytes of the csv file, eg. a mapped window
+   * @param start  offset of the field's first byte
+   * @param end    offset just past the field's last byte
+   * @return the decoded field
+   */
+  public String intern(ByteBuffer buffer, int start, int end){
+    int length = end - start;
+    if (scratch.length < length) {
+      scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+    }
+    buffer.get(start, scratch, 0, length);
+
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + scratch[i];
+    }
+
+    int slot = slotFor(hash);
+    for (; keys[slot] != null; slot = (slot + 1) & (CAPACITY - 1)) {
+      if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, scratch, 0, length)) {
+        return values[slot];
+      }
+    }
+
+    String value = new String(scratch, 0, length, charset);
+    if (size == MAX_ENTRIES) {
+      clear();
+      slot = slotFor(hash);
+    }
+    keys[slot] = Arrays.copyOf(scratch, length);
+    hashes[slot] = hash;
+    values[slot] = value;
+    size++;
+    return value;
+  }
+
+  // Fibonacci hashing spreads the low-entropy byte hashes of similar titles across the table
+  private static int slotFor(int hash){
+    return (hash * 0x9E3779B9) >>> SLOT_SHIFT;
+  }
+
+  private void clear(){
+    Arrays.fill(keys, null);
+    Arrays.fill(values, null);
+    size = 0;
+  }
+}
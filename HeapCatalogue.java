@@ -0,0 +1,246 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.SortedMap;
+
+/**
+ * Default {@code SpellbookCatalogue} keeping one {@code SpellBook} object per copy in a sorted
+ * {@code SpellbookStore}, with case-folded indexes for {@code TYPE} and {@code INVENTOR}, live
+ * attribute counts, and a concurrent index of the available spellbooks. Each spellbook's own monitor
+ * orders its rental side effects.
+ *
+ * <p>Titles, inventors and types are interned on add, so every copy of a spellbook shares one
+ * {@code String} per field, and short printable forms are dictionary-encoded for comparison by code.
+ */
+public class HeapCatalogue implements SpellbookCatalogue {
+  private final SpellbookStore spellbookStore;
+  private final AvailabilityIndex availableSpellbooks;  // Subset of spellbookStore not currently rented
+  private final AttributeIndex typeIndex;
+  private final AttributeIndex inventorIndex;
+  private final TitleIndex titleIndex;
+  private final AttributeCounts copyCounts;  // Keyed on each spellbook's short printable form
+  private final AttributeCounts typeCounts;
+  private final AttributeCounts inventorCounts;
+  private final StringDictionary titles;
+  private final StringDictionary inventors;
+  private final StringDictionary types;
+  private final StringDictionary printableForms;  // Short printable forms, coded for COMMON
+
+  /**
+   * Constructs an empty {@code HeapCatalogue}.
+   */
+  public HeapCatalogue(){
+    this.spellbookStore = new SpellbookStore();
+    this.availableSpellbooks = new AvailabilityIndex();
+    this.typeIndex = new AttributeIndex(SpellBook::getType);
+    this.inventorIndex = new AttributeIndex(SpellBook::getInventor);
+    this.titleIndex = new TitleIndex();
+    this.copyCounts = new AttributeCounts();
+    this.typeCounts = new AttributeCounts();
+    this.inventorCounts = new AttributeCounts();
+    this.titles = new StringDictionary();
+    this.inventors = new StringDictionary();
+    this.types = new StringDictionary();
+    this.printableForms = new StringDictionary();
+  }
+
+  @Override
+  public int size() {
+    return spellbookStore.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return spellbookStore.isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(int serialNumber) {
+    return spellbookStore.containsKey(serialNumber);
+  }
+
+  @Override
+  public int rowOf(int serialNumber) {
+    int index = spellbookStore.indexOf(serialNumber);
+    return index >= 0 ? index : -1;
+  }
+
+  @Override
+  public int rowAfter(int serialNumber) {
+    int index = spellbookStore.indexOf(serialNumber);
+    return index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  @Override
+  public void add(SpellBook sb) {
+    int titleCode = titles.encode(sb.getTitle());
+    sb.setTitle(titles.decode(titleCode));
+    sb.setInventor(inventors.intern(sb.getInventor()));
+    sb.setType(types.intern(sb.getType()));
+    printableForms.encode(sb.getPrintableForm());
+
+    spellbookStore.put(sb);
+    if (sb.getStudentRenting() == -1) {
+      availableSpellbooks.add(sb);
+    }
+    typeIndex.add(sb);
+    inventorIndex.add(sb);
+    titleIndex.add(sb.getSerialNumber(), titleCode, sb.getTitle());
+    copyCounts.add(sb.getPrintableForm());
+    typeCounts.add(sb.getType());
+    inventorCounts.add(sb.getInventor());
+  }
+
+  @Override
+  public int getSerialNumber(int row) {
+    return spellbookStore.valueAt(row).getSerialNumber();
+  }
+
+  @Override
+  public String getTitle(int row) {
+    return spellbookStore.valueAt(row).getTitle();
+  }
+
+  @Override
+  public String getInventor(int row) {
+    return spellbookStore.valueAt(row).getInventor();
+  }
+
+  @Override
+  public String getType(int row) {
+    return spellbookStore.valueAt(row).getType();
+  }
+
+  @Override
+  public String getPrintableForm(int row, boolean longPresent) {
+    return spellbookStore.valueAt(row).getPrintableForm(longPresent);
+  }
+
+  @Override
+  public int getPrintableFormCode(int row) {
+    return printableForms.codeOf(spellbookStore.valueAt(row).getPrintableForm());
+  }
+
+  @Override
+  public String decodePrintableForm(int code) {
+    return printableForms.decode(code);
+  }
+
+  @Override
+  public String getRentingStatus(int row) {
+    return spellbookStore.valueAt(row).getRentingStatus();
+  }
+
+  @Override
+  public int getStudentRenting(int row) {
+    return spellbookStore.valueAt(row).getStudentRenting();
+  }
+
+  @Override
+  public boolean tryRent(int row, int studentNumber) {
+    SpellBook sb = spellbookStore.valueAt(row);
+    if (!sb.tryRent(studentNumber)) return false;
+
+    availableSpellbooks.remove(sb);
+    return true;
+  }
+
+  @Override
+  public boolean tryReturn(int row, int studentNumber) {
+    SpellBook sb = spellbookStore.valueAt(row);
+    if (!sb.tryReturn(studentNumber)) return false;
+
+    availableSpellbooks.add(sb);
+    return true;
+  }
+
+  @Override
+  public Object rentalLock(int row) {
+    return spellbookStore.valueAt(row);
+  }
+
+  @Override
+  public void addToHistory(int row, int studentNumber) {
+    spellbookStore.valueAt(row).addToHistory(studentNumber);
+  }
+
+  @Override
+  public int[] getHistory(int row) {
+    return spellbookStore.valueAt(row).getHistory().toArray();
+  }
+
+  @Override
+  public int[] getHistory(int row, int fromIndex, int toIndex) {
+    return spellbookStore.valueAt(row).getHistory().toArray(fromIndex, toIndex);
+  }
+
+  @Override
+  public int availableCount() {
+    return availableSpellbooks.size();
+  }
+
+  @Override
+  public PrimitiveIterator.OfInt availableRows(int fromRow) {
+    if (fromRow == 0) {
+      return new RowIterator(availableSpellbooks.values().iterator());  // Maintained by tryRent and tryReturn
+    }
+    if (fromRow >= size()) {
+      return new RowIterator(Collections.emptyIterator());
+    }
+    return new RowIterator(availableSpellbooks.valuesFrom(getSerialNumber(fromRow)).iterator());
+  }
+
+  @Override
+  public PrimitiveIterator.OfInt rowsWithType(String type) {
+    return new RowIterator(typeIndex.matches(type).iterator());
+  }
+
+  @Override
+  public PrimitiveIterator.OfInt rowsWithInventor(String inventor) {
+    return new RowIterator(inventorIndex.matches(inventor).iterator());
+  }
+
+  @Override
+  public int[] serialsWithTitleContaining(String text) {
+    return titleIndex.serialsContaining(text);
+  }
+
+  @Override
+  public SortedMap<String, Integer> copyCounts() {
+    return copyCounts.counts();
+  }
+
+  @Override
+  public SortedMap<String, Integer> typeCounts() {
+    return typeCounts.counts();
+  }
+
+  @Override
+  public SortedMap<String, Integer> inventorCounts() {
+    return inventorCounts.counts();
+  }
+
+  @Override
+  public SpellBook toSpellBook(int row) {
+    return spellbookStore.valueAt(row);
+  }
+
+  // Maps spellbooks from an index, already in serial order, to their rows in the store
+  private class RowIterator implements PrimitiveIterator.OfInt {
+    private final Iterator<SpellBook> spellbooks;
+
+    RowIterator(Iterator<SpellBook> spellbooks){
+      this.spellbooks = spellbooks;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return spellbooks.hasNext();
+    }
+
+    @Override
+    public int nextInt() {
+      return spellbookStore.indexOf(spellbooks.next().getSerialNumber());
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Set of {@code int} values that remembers insertion order, used for a student's current loans.
+ * Values live unboxed in an open-addressing hash table whose slots are also doubly linked in the order
+ * they were added, so adding, removing and membership checks are O(1) and iteration still lists
+ * spellbooks in the order they were rented, as {@code STUDENT SPELLBOOKS} prints them.
+ *
+ * <p>Removal shifts later entries of the same probe run back into the freed slot (rather than leaving
+ * a tombstone) and relinks them, so lookups never slow down however many loans come and go.
+ */
+public class IntLinkedSet {
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 4;  // Power of two, kept at most half full
+  private static final int[] EMPTY = new int[0];
+  private static final boolean[] EMPTY_USED = new boolean[0];
+
+  private int[] keys;
+  private int[] previous;  // Slot of the entry added before this one, or NONE
+  private int[] next;  // Slot of the entry added after this one, or NONE
+  private boolean[] used;
+  private int head;
+  private int tail;
+  private int size;
+
+  /**
+   * Constructs an empty {@code IntLinkedSet}. No table is allocated until the first value is added.
+   */
+  public IntLinkedSet(){
+    this.keys = EMPTY;
+    this.previous = EMPTY;
+    this.next = EMPTY;
+    this.used = EMPTY_USED;
+    this.head = NONE;
+    this.tail = NONE;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public boolean isEmpty(){
+    return size == 0;
+  }
+
+  public boolean contains(int value){
+    return size > 0 && findSlot(value) != NONE;
+  }
+
+  /**
+   * Adds a value after every value already in the set.
+   *
+   * @param value the value to add
+   * @return {@code true} if the value was added, {@code false} if it was already present
+   */
+  public boolean add(int value){
+    if (contains(value)) return false;
+    if ((size + 1) * 2 > keys.length) {
+      resize(Math.max(INITIAL_CAPACITY, keys.length * 2));
+    }
+    insertLast(value);
+    return true;
+  }
+
+  /**
+   * Removes a value, keeping the remaining values in insertion order.
+   *
+   * @param value the value to remove
+   * @return {@code true} if the value was present, otherwise {@code false}
+   */
+  public boolean remove(int value){
+    if (size == 0) return false;
+    int slot = findSlot(value);
+    if (slot == NONE) return false;
+
+    unlink(slot);
+    used[slot] = false;
+    size--;
+    shiftBack(slot);
+    return true;
+  }
+
+  /**
+   * Copies the set in insertion order, eg. to iterate it after releasing the owner's lock.
+   *
+   * @return a new array holding every value, oldest first
+   */
+  public int[] toArray(){
+    int[] copy = new int[size];
+    int i = 0;
+    for (int slot = head; slot != NONE; slot = next[slot]) {
+      copy[i++] = keys[slot];
+    }
+    return copy;
+  }
+
+  // Fibonacci hashing spreads consecutive serial numbers across the table
+  private int homeSlot(int value){
+    return (value * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(keys.length));
+  }
+
+  private int findSlot(int value){
+    int mask = keys.length - 1;
+    for (int slot = homeSlot(value); used[slot]; slot = (slot + 1) & mask) {
+      if (keys[slot] == value) return slot;
+    }
+    return NONE;
+  }
+
+  private void insertLast(int value){
+    int mask = keys.length - 1;
+    int slot = homeSlot(value);
+    while (used[slot]) {
+      slot = (slot + 1) & mask;
+    }
+
+    keys[slot] = value;
+    used[slot] = true;
+    previous[slot] = tail;
+    next[slot] = NONE;
+    if (tail == NONE) {
+      head = slot;
+    } else {
+      next[tail] = slot;
+    }
+    tail = slot;
+    size++;
+  }
+
+  private void unlink(int slot){
+    if (previous[slot] == NONE) {
+      head = next[slot];
+    } else {
+      next[previous[slot]] = next[slot];
+    }
+    if (next[slot] == NONE) {
+      tail = previous[slot];
+    } else {
+      previous[next[slot]] = previous[slot];
+    }
+  }
+
+  // Moves entries that probed past the freed slot back into it, so no probe run has a gap
+  private void shiftBack(int freed){
+    int mask = keys.length - 1;
+    for (int slot = (freed + 1) & mask; used[slot]; slot = (slot + 1) & mask) {
+      int home = homeSlot(keys[slot]);
+      if (((slot - home) & mask) < ((slot - freed) & mask)) {
+        continue;  // Entry's home lies after the freed slot, so it must stay where it is
+      }
+
+      keys[freed] = keys[slot];
+      previous[freed] = previous[slot];
+      next[freed] = next[slot];
+      used[freed] = true;
+      used[slot] = false;
+      // Neighbours in insertion order now point at the entry's new slot
+      if (previous[freed] == NONE) {
+        head = freed;
+      } else {
+        next[previous[freed]] = freed;
+      }
+      if (next[freed] == NONE) {
+        tail = freed;
+      } else {
+        previous[next[freed]] = freed;
+      }
+      freed = slot;
+    }
+  }
+
+  private void resize(int capacity){
+    int[] values = toArray();
+    keys = new int[capacity];
+    previous = new int[capacity];
+    next = new int[capacity];
+    used = new boolean[capacity];
+    head = NONE;
+    tail = NONE;
+    size = 0;
+
+    for (int value : values) {
+      insertLast(value);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+/**
+ * Append-only log of {@code int} values backed by a growable array, used for rental histories.
+ * Values are stored unboxed, so each rental costs four bytes instead of a boxed {@code Integer}
+ * plus a list slot. Logs start without an array, since many spellbooks and students never rent.
+ */
+public class IntLog {
+  private static final int[] EMPTY = new int[0];
+  private static final int INITIAL_CAPACITY = 4;
+
+  private int[] values;
+  private int size;
+
+  /**
+   * Constructs an empty {@code IntLog}.
+   */
+  public IntLog(){
+    this.values = EMPTY;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public boolean isEmpty(){
+    return size == 0;
+  }
+
+  /**
+   * Returns the value at a position in the log.
+   *
+   * @param index the position, starting at 0 for the oldest value
+   * @return the value
+   * @throws IndexOutOfBoundsException if there is no value at that position
+   */
+  public int get(int index){
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+    }
+    return values[index];
+  }
+
+  /**
+   * Appends a value to the end of the log.
+   *
+   * @param value the value to append
+   */
+  public void add(int value){
+    if (size == values.length) {
+      values = Arrays.copyOf(values, Math.max(INITIAL_CAPACITY, size * 2));
+    }
+    values[size++] = value;
+  }
+
+  /**
+   * Copies the log, oldest value first, eg. to iterate it after releasing the owner's lock.
+   *
+   * @return a new array holding every value in the log
+   */
+  public int[] toArray(){
+    return Arrays.copyOf(values, size);
+  }
+
+  /**
+   * Copies part of the log, eg. one page of a rental history.
+   *
+   * @param fromIndex position of the first value to copy
+   * @param toIndex   position after the last value to copy, clamped to the log's size
+   * @return the values in that range, oldest first, empty if {@code fromIndex} is at or past the end
+   */
+  public int[] toArray(int fromIndex, int toIndex){
+    int end = Math.min(toIndex, size);
+    if (fromIndex >= end) return EMPTY;
+    return Arrays.copyOfRange(values, fromIndex, end);
+  }
+}
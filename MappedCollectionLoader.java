@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Loads a spellbook csv file for {@code ADD COLLECTION} by memory-mapping it and parsing rows straight
+ * from the mapped bytes. Serial numbers are read without creating any Strings, so duplicate rows are
+ * skipped before anything is allocated, and title, inventor and type are only decoded for rows that
+ * are actually added. Fields are decoded through a {@code FieldInterner}, so copies of the same
+ * spellbook share their title, inventor and type strings. An instance reuses decode buffers between
+ * rows, so it must not be shared between threads.
+ */
+public class MappedCollectionLoader {
+  private static final long MAX_WINDOW_SIZE = 1L << 30;  // Files over 1 GiB are mapped one window at a time
+
+  private final Charset charset;
+  private final FieldInterner fieldInterner;  // Decodes title, inventor and type, reusing repeated values
+  private byte[] scratch;  // Reused when decoding whole rows into Strings
+
+  /**
+   * Constructs a {@code MappedCollectionLoader} decoding fields with the platform default charset,
+   * matching how {@code Scanner} reads csv files.
+   */
+  public MappedCollectionLoader(){
+    this.charset = Charset.defaultCharset();
+    this.fieldInterner = new FieldInterner(charset);
+    this.scratch = new byte[256];
+  }
+
+  /**
+   * Adds every spellbook in the file that is not a duplicate, skipping the header line.
+   *
+   * @param file         the csv file to load
+   * @param isDuplicate  returns {@code true} for serial numbers already in the system
+   * @param addSpellbook receives each spellbook to add, in file order
+   * @return the number of spellbooks added
+   * @throws java.io.FileNotFoundException if the file does not exist or cannot be opened
+   * @throws IOException if the file cannot be mapped or read
+   */
+  public int load(File file, IntPredicate isDuplicate, Consumer<SpellBook> addSpellbook) throws IOException {
+    int sbCount = 0;
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      long fileSize = channel.size();
+      long windowStart = 0;
+      boolean headerSkipped = false;
+
+      while (windowStart < fileSize) {
+        long windowLength = Math.min(MAX_WINDOW_SIZE, fileSize - windowStart);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+        int rowsEnd = completeRowsEnd(window, windowStart + windowLength == fileSize);
+        if (rowsEnd == 0) {
+          throw new IOException("Row in " + file + " is longer than " + MAX_WINDOW_SIZE + " bytes.");
+        }
+
+        int rowsStart = 0;
+        if (!headerSkipped) {
+          rowsStart = skipHeader(window, rowsEnd);  // skip header line in csv file
+          headerSkipped = true;
+        }
+
+        sbCount += loadRows(window, rowsStart, rowsEnd, isDuplicate, addSpellbook);
+        windowStart += rowsEnd;  // Any partial row at the end of the window starts the next window
+      }
+    }
+    return sbCount;
+  }
+
+  /**
+   * Adds every non-duplicate spellbook whose row lies in {@code [start, end)} of a mapped window.
+   * {@code start} must be the beginning of a row and {@code end} the end of one.
+   *
+   * @param window       the mapped bytes of the csv file
+   * @param start        offset of the first row to load
+   * @param end          offset just past the last row to load
+   * @param isDuplicate  returns {@code true} for serial numbers already in the system
+   * @param addSpellbook receives each spellbook to add, in file order
+   * @return the number of spellbooks added
+   */
+  public int loadRows(MappedByteBuffer window, int start, int end, IntPredicate isDuplicate,
+                      Consumer<SpellBook> addSpellbook){
+    int sbCount = 0;
+    int rowStart = start;
+
+    while (rowStart < end) {
+      int rowEnd = indexOf(window, (byte) '\n', rowStart, end);
+      if (rowEnd < 0) {
+        rowEnd = end;  // Last row of the file has no line terminator
+      }
+
+      int contentEnd = rowEnd;
+      if (contentEnd > rowStart && window.get(contentEnd - 1) == '\r') {
+        contentEnd--;  // Windows line ending
+      }
+
+      if (loadRow(window, rowStart, contentEnd, isDuplicate, addSpellbook)) {
+        sbCount++;
+      }
+      rowStart = rowEnd + 1;
+    }
+    return sbCount;
+  }
+
+  /**
+   * Returns the offset just past the last complete row in a mapped window.
+   *
+   * @param window     the mapped bytes of the csv file
+   * @param lastWindow whether the window reaches the end of the file, making its final row complete
+   * @return the end of the last complete row, or 0 if the window holds no complete row
+   */
+  public static int completeRowsEnd(MappedByteBuffer window, boolean lastWindow){
+    int limit = window.limit();
+    return lastWindow ? limit : lastIndexOf(window, (byte) '\n', 0, limit) + 1;
+  }
+
+  /**
+   * Returns the offset of the first row after the header line.
+   *
+   * @param window the mapped bytes at the start of the csv file
+   * @param end    offset just past the last row in the window
+   * @return the start of the first data row, or {@code end} if the window only holds the header
+   */
+  public static int skipHeader(MappedByteBuffer window, int end){
+    int headerEnd = indexOf(window, (byte) '\n', 0, end);
+    return headerEnd < 0 ? end : headerEnd + 1;
+  }
+
+  /**
+   * Returns the offset of the next row start at or after {@code from}, so a range can be split on a
+   * line boundary.
+   *
+   * @param window the mapped bytes of the csv file
+   * @param from   offset to start searching from
+   * @param end    offset just past the last row in the range
+   * @return the start of the next row, or {@code end} if there is no later row in the range
+   */
+  public static int nextRowStart(MappedByteBuffer window, int from, int end){
+    int newline = indexOf(window, (byte) '\n', from, end);
+    return newline < 0 ? end : newline + 1;
+  }
+
+  /**
+   * Parses a csv line of the form {@code serialNumber,title,inventor,type} into a spellbook.
+   *
+   * @param line the csv line without its line terminator
+   * @return the parsed spellbook
+   */
+  public static SpellBook parseSpellBookFromLine(String line) {
+    String[] lineParts = line.split(",");
+    int serialNumber = Integer.parseInt(lineParts[0]);
+    String title = lineParts[1];
+    String inventor = lineParts[2];
+    String type = lineParts[3];
+
+    return new SpellBook(serialNumber, title, inventor, type);
+  }
+
+  // Returns whether the row was added. Rows the byte parser doesn't fully understand fall back to
+  // parseSpellBookFromLine, so unusual rows behave (and fail) exactly as they would through Scanner.
+  private boolean loadRow(MappedByteBuffer window, int start, int end, IntPredicate isDuplicate,
+                          Consumer<SpellBook> addSpellbook){
+    int pos = start;
+    boolean negative = false;
+    if (pos < end && (window.get(pos) == '-' || window.get(pos) == '+')) {
+      negative = window.get(pos) == '-';
+      pos++;
+    }
+
+    long serial = 0;
+    int digitsStart = pos;
+    long maxSerial = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+    while (pos < end && window.get(pos) >= '0' && window.get(pos) <= '9' && serial <= maxSerial) {
+      serial = serial * 10 + (window.get(pos) - '0');
+      pos++;
+    }
+
+    int titleComma = pos;
+    if (pos == digitsStart || serial > maxSerial || titleComma == end || window.get(titleComma) != ',') {
+      return loadRowFromString(window, start, end, isDuplicate, addSpellbook);
+    }
+
+    int serialNumber = (int) (negative ? -serial : serial);
+    if (isDuplicate.test(serialNumber)) {
+      return false;  // Skip duplicate before decoding any fields
+    }
+
+    int inventorComma = indexOf(window, (byte) ',', titleComma + 1, end);
+    int typeComma = inventorComma < 0 ? -1 : indexOf(window, (byte) ',', inventorComma + 1, end);
+    if (typeComma < 0) {
+      return loadRowFromString(window, start, end, isDuplicate, addSpellbook);
+    }
+
+    int typeEnd = indexOf(window, (byte) ',', typeComma + 1, end);
+    if (typeEnd < 0) {
+      typeEnd = end;  // Extra columns after type are ignored, as with String.split
+    }
+    if (typeEnd == typeComma + 1) {
+      return loadRowFromString(window, start, end, isDuplicate, addSpellbook);  // Empty type column
+    }
+
+    String title = fieldInterner.intern(window, titleComma + 1, inventorComma);
+    String inventor = fieldInterner.intern(window, inventorComma + 1, typeComma);
+    String type = fieldInterner.intern(window, typeComma + 1, typeEnd);
+    addSpellbook.accept(new SpellBook(serialNumber, title, inventor, type));
+    return true;
+  }
+
+  private boolean loadRowFromString(MappedByteBuffer window, int start, int end, IntPredicate isDuplicate,
+                                    Consumer<SpellBook> addSpellbook){
+    SpellBook sb = parseSpellBookFromLine(decode(window, start, end));
+    if (isDuplicate.test(sb.getSerialNumber())) {
+      return false;
+    }
+    addSpellbook.accept(sb);
+    return true;
+  }
+
+  private String decode(MappedByteBuffer window, int start, int end){
+    int length = end - start;
+    if (scratch.length < length) {
+      scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+    }
+    window.get(start, scratch, 0, length);
+    return new String(scratch, 0, length, charset);
+  }
+
+  private static int indexOf(MappedByteBuffer window, byte target, int from, int to){
+    for (int i = from; i < to; i++) {
+      if (window.get(i) == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int lastIndexOf(MappedByteBuffer window, byte target, int from, int to){
+    for (int i = to - 1; i >= from; i--) {
+      if (window.get(i) == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
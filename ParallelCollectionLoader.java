@@ -0,0 +1,218 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Loads several spellbook csv files for {@code ADD COLLECTIONS} by parsing them in parallel on a
+ * fork/join pool. Each file is memory-mapped and large files are split on line boundaries, then the
+ * parsed spellbooks are merged back in command-line order (file by file, row by row), so the first
+ * copy of a serial number always wins and the reported count never depends on thread timing.
+ *
+ * <p>A malformed row is handled as {@code ADD COLLECTION} handles it: the rows before it are kept and its
+ * parse error is then thrown. Earlier files are kept too, and later files are not added, exactly as if
+ * the files had been added one at a time.
+ */
+public class ParallelCollectionLoader {
+  private static final long MAX_WINDOW_SIZE = 1L << 30;  // Matches MappedCollectionLoader's mapping window
+  private static final int SPLIT_THRESHOLD = 1 << 22;  // Ranges over 4 MiB are split across workers
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Constructs a {@code ParallelCollectionLoader} that parses on the given pool.
+   *
+   * @param pool the fork/join pool to run parsing tasks on, eg. {@code ForkJoinPool.commonPool()}
+   */
+  public ParallelCollectionLoader(ForkJoinPool pool){
+    this.pool = pool;
+  }
+
+  /**
+   * Adds every spellbook in the given files that is not a duplicate, skipping each file's header line.
+   * Nothing is added unless every file can be opened and mapped. If a row is malformed, the rows before
+   * it (in file order) are added and its parse error is thrown.
+   *
+   * @param files        the csv files to load, in the order their rows should win duplicates
+   * @param isDuplicate  returns {@code true} for serial numbers already in the system
+   * @param addSpellbook receives each spellbook to add, in file order
+   * @return the number of spellbooks added
+   * @throws FileNotFoundException if a file does not exist or cannot be opened
+   * @throws IOException if a file cannot be mapped
+   * @throws RuntimeException the first malformed row's parse error, eg. {@code NumberFormatException}
+   */
+  public int load(List<File> files, IntPredicate isDuplicate, Consumer<SpellBook> addSpellbook) throws IOException {
+    // Map every file up front so a missing file is reported before anything is added
+    List<ParseTask> tasks = new ArrayList<>();
+    for (File file : files) {
+      mapFile(file, isDuplicate, tasks);
+    }
+
+    for (ParseTask task : tasks) {
+      pool.execute(task);
+    }
+
+    // Workers read the existing store to skip duplicates, so wait for all of them before the merge writes to it
+    List<ParsedRows> parsedWindows = new ArrayList<>();
+    for (ParseTask task : tasks) {
+      parsedWindows.add(task.join());
+    }
+
+    int sbCount = 0;
+    for (ParsedRows parsed : parsedWindows) {
+      for (SpellBook sb : parsed.spellbooks) {
+        if (isDuplicate.test(sb.getSerialNumber())) {
+          continue;  // An earlier file or row already supplied this serial number
+        }
+        addSpellbook.accept(sb);
+        sbCount++;
+      }
+      if (parsed.failure != null) {
+        throw parsed.failure;  // Rows before the malformed one are kept, as with ADD COLLECTION
+      }
+    }
+    return sbCount;
+  }
+
+  /**
+   * Expands command arguments into csv files. Arguments containing glob characters ({@code *?[{})
+   * match file names in their directory, sorted by name so the load order is repeatable.
+   *
+   * @param paths file paths or glob patterns, eg. {@code shards/part-*.csv}
+   * @return the matching files, in argument order
+   * @throws FileNotFoundException if a plain path does not exist or a pattern matches nothing
+   * @throws IOException if a pattern's directory cannot be listed
+   */
+  public static List<File> expandPaths(List<String> paths) throws IOException {
+    List<File> files = new ArrayList<>();
+
+    for (String path : paths) {
+      Path pattern = Path.of(path);
+      String fileName = pattern.getFileName().toString();
+
+      if (!fileName.matches(".*[*?\\[{].*")) {
+        File file = pattern.toFile();
+        if (!file.isFile()) {
+          throw new FileNotFoundException(path);
+        }
+        files.add(file);
+        continue;
+      }
+
+      Path directory = pattern.getParent() != null ? pattern.getParent() : Path.of(".");
+      List<File> matches = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, fileName)) {
+        for (Path match : stream) {
+          if (Files.isRegularFile(match)) {
+            matches.add(match.toFile());
+          }
+        }
+      }
+
+      if (matches.isEmpty()) {
+        throw new FileNotFoundException(path);
+      }
+      matches.sort(null);  // Directory listings have no fixed order
+      files.addAll(matches);
+    }
+    return files;
+  }
+
+  // Maps a file in row-aligned windows and queues one parse task per window
+  private static void mapFile(File file, IntPredicate isDuplicate, List<ParseTask> tasks) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      long fileSize = channel.size();
+      long windowStart = 0;
+      boolean headerSkipped = false;
+
+      while (windowStart < fileSize) {
+        long windowLength = Math.min(MAX_WINDOW_SIZE, fileSize - windowStart);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+        int rowsEnd = MappedCollectionLoader.completeRowsEnd(window, windowStart + windowLength == fileSize);
+        if (rowsEnd == 0) {
+          throw new IOException("Row in " + file + " is longer than " + MAX_WINDOW_SIZE + " bytes.");
+        }
+
+        int rowsStart = 0;
+        if (!headerSkipped) {
+          rowsStart = MappedCollectionLoader.skipHeader(window, rowsEnd);  // skip header line in csv file
+          headerSkipped = true;
+        }
+
+        tasks.add(new ParseTask(window, rowsStart, rowsEnd, isDuplicate));
+        windowStart += rowsEnd;
+      }
+    }
+  }
+
+  /**
+   * Parses the rows in {@code [start, end)} of a mapped window, splitting large ranges in half on a
+   * line boundary. Results are joined left then right, so they stay in file order, and a malformed row
+   * ends the rows kept at that point instead of failing the task.
+   */
+  private static class ParseTask extends RecursiveTask<ParsedRows> {
+    private static final long serialVersionUID = 1L;  // Serializable only through ForkJoinTask, never serialized
+
+    private final transient MappedByteBuffer window;
+    private final int start;
+    private final int end;
+    private final transient IntPredicate isDuplicate;
+
+    ParseTask(MappedByteBuffer window, int start, int end, IntPredicate isDuplicate){
+      this.window = window;
+      this.start = start;
+      this.end = end;
+      this.isDuplicate = isDuplicate;
+    }
+
+    @Override
+    protected ParsedRows compute() {
+      if (end - start > SPLIT_THRESHOLD) {
+        int middle = MappedCollectionLoader.nextRowStart(window, start + (end - start) / 2, end);
+        if (middle < end) {
+          ParseTask left = new ParseTask(window, start, middle, isDuplicate);
+          ParseTask right = new ParseTask(window, middle, end, isDuplicate);
+          ForkJoinTask.invokeAll(left, right);
+
+          ParsedRows parsed = left.join();
+          if (parsed.failure == null) {
+            ParsedRows rightRows = right.join();  // Rows after a malformed one on the left are dropped
+            parsed.spellbooks.addAll(rightRows.spellbooks);
+            parsed.failure = rightRows.failure;
+          }
+          return parsed;
+        }
+      }
+
+      // Rows already in the system are skipped here without decoding, the merge handles the rest
+      ParsedRows parsed = new ParsedRows();
+      try {
+        new MappedCollectionLoader().loadRows(window, start, end, isDuplicate, parsed.spellbooks::add);
+      } catch (RuntimeException e) {
+        parsed.failure = e;
+      }
+      return parsed;
+    }
+  }
+
+  /**
+   * The spellbooks parsed from a range, in file order, and the parse error of the malformed row that
+   * ended the range early, if any.
+   */
+  private static class ParsedRows {
+    private final List<SpellBook> spellbooks = new ArrayList<>();
+    private RuntimeException failure;
+  }
+}
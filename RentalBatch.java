@@ -0,0 +1,145 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Student and serial number pairs for one {@code RENT BATCH} or {@code RELINQUISH BATCH} command, with
+ * the result of each pair once the batch has been applied. Pairs come from the command line or from a file
+ * with one {@code <studentNumber> <serialNumber>} pair per line.
+ */
+public class RentalBatch {
+  private static final int READ_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Outcome of one pair in a batch.
+   */
+  public enum Result {
+    /** The spellbook was rented to the student. */
+    RENTED,
+    /** The student returned the spellbook. */
+    RETURNED,
+    NO_SUCH_STUDENT,
+    NO_SUCH_SPELLBOOK,
+    /** The spellbook is already rented, possibly by an earlier pair in the same batch. */
+    UNAVAILABLE,
+    /** The student is not renting the spellbook, or an earlier pair in the same batch returned it. */
+    NOT_RENTED,
+    /** The pair was valid but nothing was applied, because another pair of an atomic batch failed. */
+    NOT_APPLIED
+  }
+
+  private int[] studentNumbers;
+  private int[] serialNumbers;
+  private Result[] results;
+  private int size;
+
+  private RentalBatch(int capacity){
+    this.studentNumbers = new int[capacity];
+    this.serialNumbers = new int[capacity];
+  }
+
+  /**
+   * Reads pairs from the tokens of a command, eg. {@code RENT BATCH 100000 111111 100001 222222}.
+   *
+   * @param tokens     the tokenized command
+   * @param firstIndex position of the first student number
+   * @return the batch, or {@code null} if there are no pairs, a pair is incomplete or a token is not a number
+   */
+  public static RentalBatch fromTokens(CommandTokenizer tokens, int firstIndex){
+    int tokenCount = tokens.count() - firstIndex;
+    if (tokenCount <= 0 || tokenCount % 2 != 0) return null;
+
+    RentalBatch batch = new RentalBatch(tokenCount / 2);
+    for (int i = firstIndex; i < tokens.count(); i += 2) {
+      if (!tokens.isInteger(i) || !tokens.isInteger(i + 1)) return null;
+      batch.add(tokens.parseInt(i), tokens.parseInt(i + 1));
+    }
+    return batch;
+  }
+
+  /**
+   * Reads one pair per line from a file. Blank lines are skipped.
+   *
+   * @param file the file of pairs
+   * @return the batch, or {@code null} if there are no pairs or a line is not a pair of numbers
+   * @throws java.io.FileNotFoundException if the file does not exist or cannot be opened
+   * @throws IOException if the file cannot be read
+   */
+  public static RentalBatch fromFile(File file) throws IOException {
+    RentalBatch batch = new RentalBatch(1024);
+    CommandTokenizer lineTokens = new CommandTokenizer();
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(file), READ_BUFFER_SIZE)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) continue;
+
+        lineTokens.reset(line.strip());
+        if (lineTokens.count() != 2 || !lineTokens.isInteger(0) || !lineTokens.isInteger(1)) return null;
+        batch.add(lineTokens.parseInt(0), lineTokens.parseInt(1));
+      }
+    }
+    return batch.size == 0 ? null : batch;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public int getStudentNumber(int index){
+    return studentNumbers[index];
+  }
+
+  public int getSerialNumber(int index){
+    return serialNumbers[index];
+  }
+
+  /**
+   * Returns the result recorded for a pair.
+   *
+   * @param index the pair's position in the batch
+   * @return the result, or {@code null} if none has been recorded yet
+   */
+  public Result getResult(int index){
+    return results == null ? null : results[index];
+  }
+
+  /**
+   * Records the result of a pair.
+   *
+   * @param index  the pair's position in the batch
+   * @param result what happened to the pair
+   */
+  public void setResult(int index, Result result){
+    if (results == null) {
+      results = new Result[size];
+    }
+    results[index] = result;
+  }
+
+  /**
+   * Counts the pairs with a given result.
+   *
+   * @param result the result to count
+   * @return the number of pairs with that result
+   */
+  public int countResults(Result result){
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (getResult(i) == result) count++;
+    }
+    return count;
+  }
+
+  private void add(int studentNumber, int serialNumber){
+    if (size == studentNumbers.length) {
+      studentNumbers = Arrays.copyOf(studentNumbers, size * 2);
+      serialNumbers = Arrays.copyOf(serialNumbers, size * 2);
+    }
+    studentNumbers[size] = studentNumber;
+    serialNumbers[size] = serialNumber;
+    size++;
+  }
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of the events that change archive state: students being added,
+ * spellbooks entering the catalogue, rentals and returns. Replaying the journal into a fresh
+ * {@code CommandHandler} rebuilds the students, current loans and rental histories lost on exit.
+ *
+ * <p>Events are appended to an in-memory buffer and only made durable by {@link #commit()}, which
+ * writes and fsyncs everything appended so far. Callers commit before showing a command's output, so
+ * a replayed batch of commands shares one fsync per output flush, and concurrent committers wait on a
+ * single leader's fsync instead of each forcing the file themselves. Appends and commits wait on
+ * {@code ReentrantLock}s rather than monitors, so a virtual thread waiting for the leader's fsync
+ * parks instead of pinning its carrier thread.
+ *
+ * <p>File layout: a 4 byte magic number, then records of
+ * {@code [int payload length][byte event type][payload][int CRC32 of type and payload]}.
+ * A torn or corrupt record at the end of the file (eg. from a crash mid-write) ends the replay and is
+ * truncated away before new events are appended.
+ */
+public class RentalJournal implements AutoCloseable {
+  private static final int MAGIC = 0x484A5231;  // "HJR1"
+  private static final byte ADD_STUDENT = 1;
+  private static final byte ADD_SPELLBOOK = 2;
+  private static final byte RENT = 3;
+  private static final byte RELINQUISH = 4;
+  private static final int RECORD_OVERHEAD = Integer.BYTES + 1 + Integer.BYTES;  // length, type and checksum
+  private static final int PENDING_BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final CRC32 checksum;
+  private final ReentrantLock appendLock;  // Guards the pending buffer, the checksum and appendedBytes
+  private final ReentrantLock commitLock;  // Guards isSyncing and durableBytes
+  private final Condition syncFinished;
+  private ByteBuffer pending;  // Events appended since the last commit
+  private long appendedBytes;  // Total bytes appended, including those still pending
+  private boolean isSyncing;  // A leader is writing and forcing the file
+  private long durableBytes;  // Total bytes written and forced to disk
+
+  private RentalJournal(FileChannel channel, long validLength){
+    this.channel = channel;
+    this.checksum = new CRC32();
+    this.appendLock = new ReentrantLock();
+    this.commitLock = new ReentrantLock();
+    this.syncFinished = commitLock.newCondition();
+    this.pending = ByteBuffer.allocate(PENDING_BUFFER_SIZE);
+    this.appendedBytes = validLength;
+    this.durableBytes = validLength;
+  }
+
+  /**
+   * Opens a journal file, creating it if needed, and replays its events into the given handler.
+   * The handler should be freshly constructed (or restored from a snapshot) and must not have the
+   * journal attached yet, so replayed events are not journaled a second time.
+   *
+   * @param file       the journal file
+   * @param cmdHandler the handler to rebuild state in
+   * @param fromOffset journal length already applied by a snapshot, or 0 to replay every event
+   * @return the open journal, positioned after its last valid event
+   * @throws IOException if the file cannot be opened, read, is not a journal, or is shorter than {@code fromOffset}
+   */
+  public static RentalJournal openAndReplay(File file, CommandHandler cmdHandler, long fromOffset) throws IOException {
+    long fileLength = file.exists() ? file.length() : 0;
+    if (fromOffset > fileLength) {
+      throw new IOException(file + " is shorter than the snapshot it continues from.");
+    }
+    long validLength = fileLength > 0 ? replay(file, cmdHandler, fromOffset) : 0;
+
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    RentalJournal journal = new RentalJournal(channel, validLength);
+
+    if (validLength == 0) {
+      journal.pending.putInt(MAGIC);
+      journal.appendedBytes = Integer.BYTES;
+    }
+    channel.truncate(validLength);  // Drop any torn record left by a crash
+    channel.position(validLength);
+    journal.commit();
+    return journal;
+  }
+
+  /**
+   * Returns the journal length once every event appended so far is written. A snapshot captured now
+   * covers exactly this much of the journal.
+   *
+   * @return the length in bytes, including events not yet committed
+   */
+  public long getAppendedBytes() {
+    appendLock.lock();
+    try {
+      return appendedBytes;
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public void logAddStudent(int studentNumber, String name){
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int payloadLength = Integer.BYTES * 2 + nameBytes.length;
+    appendLock.lock();
+    try {
+      beginRecord(ADD_STUDENT, payloadLength);
+      pending.putInt(studentNumber).putInt(nameBytes.length).put(nameBytes);
+      endRecord(payloadLength);
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public void logAddSpellbook(SpellBook sb){
+    byte[] title = sb.getTitle().getBytes(StandardCharsets.UTF_8);
+    byte[] inventor = sb.getInventor().getBytes(StandardCharsets.UTF_8);
+    byte[] type = sb.getType().getBytes(StandardCharsets.UTF_8);
+    int payloadLength = Integer.BYTES * 4 + title.length + inventor.length + type.length;
+    appendLock.lock();
+    try {
+      beginRecord(ADD_SPELLBOOK, payloadLength);
+      pending.putInt(sb.getSerialNumber())
+              .putInt(title.length).put(title)
+              .putInt(inventor.length).put(inventor)
+              .putInt(type.length).put(type);
+      endRecord(payloadLength);
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  public void logRent(int studentNumber, int serialNumber){
+    logLoanEvent(RENT, studentNumber, serialNumber);
+  }
+
+  public void logRelinquish(int studentNumber, int serialNumber){
+    logLoanEvent(RELINQUISH, studentNumber, serialNumber);
+  }
+
+  /**
+   * Makes every event appended so far durable. If another thread is already forcing the file, this
+   * waits for it and returns without forcing again when that fsync covered this thread's events.
+   *
+   * @throws IOException if the journal cannot be written or forced to disk
+   */
+  public void commit() throws IOException {
+    long target = getAppendedBytes();
+
+    commitLock.lock();
+    try {
+      while (isSyncing) {
+        syncFinished.awaitUninterruptibly();  // Parks without holding the lock until the leader's fsync ends
+      }
+      if (durableBytes >= target) {
+        return;  // Group commit: an earlier committer's fsync already covered these events
+      }
+      isSyncing = true;  // This thread leads, and forces the file without holding the lock
+    } finally {
+      commitLock.unlock();
+    }
+
+    long forcedUpTo = -1;  // Stays -1 if writing or forcing fails
+    try {
+      ByteBuffer toWrite;
+      long writtenUpTo;
+      appendLock.lock();
+      try {
+        toWrite = pending;
+        writtenUpTo = appendedBytes;
+        pending = ByteBuffer.allocate(PENDING_BUFFER_SIZE);  // Appends continue while this batch is written
+      } finally {
+        appendLock.unlock();
+      }
+
+      toWrite.flip();
+      while (toWrite.hasRemaining()) {
+        channel.write(toWrite);
+      }
+      channel.force(false);
+      forcedUpTo = writtenUpTo;
+    } finally {
+      commitLock.lock();
+      try {
+        if (forcedUpTo >= 0) {
+          durableBytes = forcedUpTo;
+        }
+        isSyncing = false;
+        syncFinished.signalAll();
+      } finally {
+        commitLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Commits any pending events and closes the journal file.
+   *
+   * @throws IOException if the final commit or close fails
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      commit();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void logLoanEvent(byte type, int studentNumber, int serialNumber){
+    int payloadLength = Integer.BYTES * 2;
+    appendLock.lock();
+    try {
+      beginRecord(type, payloadLength);
+      pending.putInt(studentNumber).putInt(serialNumber);
+      endRecord(payloadLength);
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  private void beginRecord(byte type, int payloadLength){
+    int recordLength = RECORD_OVERHEAD + payloadLength;
+    if (pending.remaining() < recordLength) {
+      ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordLength));
+      pending.flip();
+      pending = grown.put(pending);
+    }
+    pending.putInt(payloadLength).put(type);
+  }
+
+  private void endRecord(int payloadLength){
+    // Checksum covers the type byte and payload just written
+    int checkedStart = pending.position() - payloadLength - 1;
+    checksum.reset();
+    checksum.update(pending.array(), checkedStart, payloadLength + 1);
+    pending.putInt((int) checksum.getValue());
+    appendedBytes += RECORD_OVERHEAD + payloadLength;
+  }
+
+  // Applies each valid record after fromOffset to the handler and returns the length of the valid prefix of the file
+  private static long replay(File file, CommandHandler cmdHandler, long fromOffset) throws IOException {
+    CRC32 recordChecksum = new CRC32();
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a rental journal.");
+      }
+      long validLength = Integer.BYTES;
+      if (fromOffset > validLength) {
+        in.skipNBytes(fromOffset - validLength);  // Events up to here are already in the snapshot
+        validLength = fromOffset;
+      }
+
+      while (true) {
+        byte[] record;
+        try {
+          int payloadLength = in.readInt();
+          if (payloadLength < 0 || payloadLength > file.length()) {
+            break;  // Garbage length from a torn write
+          }
+          record = new byte[payloadLength + 1];
+          in.readFully(record);
+          recordChecksum.reset();
+          recordChecksum.update(record);
+          if (in.readInt() != (int) recordChecksum.getValue()) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;  // Last record was only partly written
+        }
+
+        applyRecord(ByteBuffer.wrap(record), cmdHandler);
+        validLength += RECORD_OVERHEAD + record.length - 1;
+      }
+      return validLength;
+    }
+  }
+
+  private static void applyRecord(ByteBuffer record, CommandHandler cmdHandler){
+    byte type = record.get();
+    switch (type) {
+      case ADD_STUDENT -> cmdHandler.restoreStudent(record.getInt(), readString(record));
+      case ADD_SPELLBOOK -> cmdHandler.restoreSpellbook(
+              new SpellBook(record.getInt(), readString(record), readString(record), readString(record)));
+      case RENT -> cmdHandler.restoreRent(record.getInt(), record.getInt());
+      case RELINQUISH -> cmdHandler.restoreRelinquish(record.getInt(), record.getInt());
+      default -> { }  // Unknown event from a newer version, nothing to apply
+    }
+  }
+
+  private static String readString(ByteBuffer record){
+    int length = record.getInt();
+    String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+    record.position(record.position() + length);
+    return value;
+  }
+}
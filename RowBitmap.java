@@ -0,0 +1,104 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * One bit per catalogue row, eg. set for every spellbook not currently rented, so {@code LIST AVAILABLE}
+ * can skip 64 rented rows at a time instead of reading the renting column row by row.
+ *
+ * <p>Bits are set and cleared with atomic operations on their word, so desks renting spellbooks in
+ * neighbouring rows never lose each other's updates. Setting a bit never reallocates the words: the
+ * bitmap is grown by {@link #ensureCapacity(int)} alongside the catalogue's columns, and like inserting a
+ * row that is only done while the catalogue lock is write-held.
+ */
+public class RowBitmap {
+  private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+  private long[] words;
+
+  /**
+   * Constructs a {@code RowBitmap} with every bit clear.
+   *
+   * @param rows number of rows to make room for
+   */
+  public RowBitmap(int rows){
+    this.words = new long[wordsFor(rows)];
+  }
+
+  /**
+   * Makes room for at least the given number of rows. Only call this while no bit can be set at the
+   * same time, since bits set in the old words meanwhile would be lost.
+   *
+   * @param rows number of rows to make room for
+   */
+  public void ensureCapacity(int rows){
+    if (wordsFor(rows) > words.length) {
+      words = Arrays.copyOf(words, wordsFor(rows));
+    }
+  }
+
+  /**
+   * Sets or clears the bit for a row.
+   *
+   * @param row   the row
+   * @param value whether the bit is set
+   * @throws IndexOutOfBoundsException if the bitmap has no room for the row
+   */
+  public void set(int row, boolean value){
+    int word = checkWord(row);
+    long bit = 1L << row;
+    if (value) {
+      WORDS.getAndBitwiseOr(words, word, bit);
+    } else {
+      WORDS.getAndBitwiseAnd(words, word, ~bit);
+    }
+  }
+
+  /**
+   * Inserts a row, moving the bits of it and every later row up by one.
+   *
+   * @param row   the position of the new row
+   * @param size  the number of rows before the insert
+   * @param value whether the new row's bit is set
+   * @throws IndexOutOfBoundsException if the bitmap has no room for one more row
+   */
+  public void insert(int row, int size, boolean value){
+    int firstWord = row >>> 6;
+    int lastWord = checkWord(size);  // Holds the old last row once moved up
+
+    for (int word = lastWord; word > firstWord; word--) {
+      words[word] = words[word] << 1 | words[word - 1] >>> 63;
+    }
+    long below = words[firstWord] & ((1L << row) - 1);  // Rows before the insert stay where they are
+    words[firstWord] = below | (words[firstWord] & ~below) << 1;
+    set(row, value);
+  }
+
+  /**
+   * Finds the first row at or after a given row whose bit is set.
+   *
+   * @param fromRow the first row to check
+   * @return the row, or {@code -1} if no later row is set
+   */
+  public int nextSetRow(int fromRow){
+    int word = fromRow >>> 6;
+    if (word >= words.length) return -1;
+
+    long bits = (long) WORDS.getAcquire(words, word) & -1L << fromRow;
+    while (bits == 0) {
+      if (++word == words.length) return -1;
+      bits = (long) WORDS.getAcquire(words, word);
+    }
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  private int checkWord(int row){
+    if (row < 0 || row >>> 6 >= words.length) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for capacity " + words.length * 64L);
+    }
+    return row >>> 6;
+  }
+
+  private static int wordsFor(int rows){
+    return (rows + 63) >>> 6;
+  }
+}
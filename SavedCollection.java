@@ -0,0 +1,337 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A spellbook csv file written by {@code SAVE COLLECTION}, remembered so the next save to the same file
+ * only formats what changed. The saved columns never change once a spellbook is added, so the changes
+ * since a save are exactly the spellbooks added after it, which the archive reports through
+ * {@link #recordAdded(int)}.
+ *
+ * <p>A later save copies the unchanged runs of rows from the previous file with
+ * {@link FileChannel#transferTo}, which stays inside the kernel where the platform allows it, and
+ * formats only the added rows between them. Every save streams through one direct buffer into a
+ * temporary file that is synced and then atomically renamed over the target, so a crash mid-save
+ * leaves the previous file intact.
+ *
+ * <p>Byte offsets of every {@value #CHECKPOINT_INTERVAL}th row or so are kept, rather than one per row,
+ * and the rows in between are found by counting lines from the nearest checkpoint. Like
+ * {@code CsvOffsetIndex}, the record remembers the file's size and modification time, and a file
+ * changed by anything else is written from scratch.
+ */
+public class SavedCollection {
+  private static final String HEADER = "serialNumber,title,inventor,type\n";
+  private static final int CHECKPOINT_INTERVAL = 64;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;  // 1 MiB of encoded rows per write
+  private static final int READ_BUFFER_SIZE = 1 << 14;  // Enough for the rows between two checkpoints
+  private static final int MAX_PENDING_DIVISOR = 4;  // Rewrite from scratch once a quarter of the rows are new
+
+  private final long fileSize;
+  private final long lastModified;
+  private final int rowCount;
+  private final int[] checkpointRows;  // Ascending data row numbers, the first data row is 0
+  private final long[] checkpointOffsets;  // Byte offset where each checkpoint row starts
+  private final int rowsFormatted;
+  private IntLog pending;  // Serial numbers added since this file was written, null once too many to patch
+
+  private SavedCollection(long fileSize, long lastModified, int rowCount, int[] checkpointRows,
+                          long[] checkpointOffsets, int rowsFormatted){
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    this.rowCount = rowCount;
+    this.checkpointRows = checkpointRows;
+    this.checkpointOffsets = checkpointOffsets;
+    this.rowsFormatted = rowsFormatted;
+    this.pending = new IntLog();
+  }
+
+  /**
+   * Writes every spellbook in the catalogue to a csv file, in serial number order.
+   *
+   * @param file      the csv file to write, replaced atomically
+   * @param catalogue the spellbooks to save
+   * @return the record of the written file, for patching on the next save
+   * @throws IOException if the file cannot be written, in which case the previous file is left unchanged
+   */
+  public static SavedCollection write(File file, SpellbookCatalogue catalogue) throws IOException {
+    return writeAtomically(file, catalogue.size(), writer -> {
+      for (int row = 0; row < catalogue.size(); row++) {  // Rows are already sorted by serial number
+        writer.checkpoint(row, writer.position());
+        writer.writeRow(catalogue, row);
+      }
+    });
+  }
+
+  /**
+   * Saves the catalogue to the file this record describes. Only the spellbooks added since the file was
+   * written are formatted, and the rest are copied from the file itself. Falls back to {@link #write}
+   * when the file has changed on disk or too much was added for patching to pay off.
+   *
+   * @param file      the csv file this record was made for
+   * @param catalogue the spellbooks to save, including every one in the file
+   * @return the record of the new file
+   * @throws IOException if the file cannot be written, in which case the previous file is left unchanged
+   */
+  public SavedCollection update(File file, SpellbookCatalogue catalogue) throws IOException {
+    if (pending == null || isStale(file)) {
+      return write(file, catalogue);
+    }
+
+    if (pending.isEmpty()) {
+      return new SavedCollection(fileSize, lastModified, rowCount, checkpointRows, checkpointOffsets, 0);  // Already up to date
+    }
+
+    int[] added = pending.toArray();
+    Arrays.sort(added);
+
+    return writeAtomically(file, catalogue.size(), writer -> {
+      try (FileChannel previous = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int copiedRows = 0;  // Rows of the previous file already written
+        long copiedOffset = HEADER.length();
+        int checkpoint = 0;  // Next checkpoint of the previous file not yet carried over
+
+        for (int i = 0; i < added.length; i++) {
+          int row = catalogue.rowOf(added[i]);
+          int previousRow = row - i;  // Rows before it are previous rows plus the i added ones sorting earlier
+          long previousOffset = offsetOf(previous, readBuffer, previousRow);
+
+          checkpoint = copyRows(writer, previous, copiedRows, copiedOffset, previousRow, previousOffset, i, checkpoint);
+          copiedRows = previousRow;
+          copiedOffset = previousOffset;
+
+          writer.checkpoint(row, writer.position());
+          writer.writeRow(catalogue, row);
+        }
+        copyRows(writer, previous, copiedRows, copiedOffset, rowCount, fileSize, added.length, checkpoint);
+      }
+    });
+  }
+
+  /**
+   * Notes that a spellbook was added after this file was written, so the next save includes it.
+   *
+   * @param serialNumber the added spellbook
+   */
+  public void recordAdded(int serialNumber){
+    if (pending == null) return;
+
+    pending.add(serialNumber);
+    if (pending.size() > rowCount / MAX_PENDING_DIVISOR) {
+      pending = null;  // Copying would save little over formatting everything, so stop tracking
+    }
+  }
+
+  /**
+   * Checks whether the file has been modified since it was saved.
+   *
+   * @param file the csv file this record was made for
+   * @return {@code true} if the file's size or modification time no longer match
+   */
+  public boolean isStale(File file){
+    return file.length() != fileSize || file.lastModified() != lastModified;
+  }
+
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  /**
+   * Returns the number of spellbooks in the saved file.
+   *
+   * @return the data row count, excluding the header
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns how many rows the save that produced this file had to format, rather than copy.
+   *
+   * @return every row for a full write, or only the added rows for a patch
+   */
+  public int getRowsFormatted() {
+    return rowsFormatted;
+  }
+
+  // Copies previous rows [fromRow, toRow) and carries their checkpoints over, shifted past the shift rows added before them
+  private int copyRows(RowWriter writer, FileChannel previous, int fromRow, long fromOffset, int toRow, long toOffset,
+                       int shift, int checkpoint) throws IOException {
+    if (fromRow == toRow) return checkpoint;
+
+    long start = writer.position();
+    writer.checkpoint(fromRow + shift, start);
+    for (; checkpoint < checkpointRows.length && checkpointRows[checkpoint] < toRow; checkpoint++) {
+      if (checkpointRows[checkpoint] >= fromRow) {  // Always kept, so gaps between checkpoints never widen
+        writer.keepCheckpoint(checkpointRows[checkpoint] + shift, start + checkpointOffsets[checkpoint] - fromOffset);
+      }
+    }
+    writer.copy(previous, fromOffset, toOffset);
+    return checkpoint;
+  }
+
+  // Finds where a row of the previous file starts by counting lines on from the checkpoint before it
+  private long offsetOf(FileChannel previous, ByteBuffer readBuffer, int row) throws IOException {
+    if (row == rowCount) return fileSize;
+
+    int index = Arrays.binarySearch(checkpointRows, row);
+    if (index >= 0) return checkpointOffsets[index];
+
+    index = -(index + 1) - 1;  // Checkpoint before the row, the first data row always has one
+    long offset = checkpointOffsets[index];
+    int linesToSkip = row - checkpointRows[index];
+
+    while (true) {
+      readBuffer.clear();
+      if (previous.read(readBuffer, offset) < 0) {
+        throw new IOException("Saved collection ended before row " + row);
+      }
+      readBuffer.flip();
+      while (readBuffer.hasRemaining()) {
+        offset++;
+        if (readBuffer.get() == '\n' && --linesToSkip == 0) return offset;
+      }
+    }
+  }
+
+  // Writes to a temporary file beside the target, syncs it and renames it into place once every file is closed
+  private static SavedCollection writeAtomically(File file, int rowCount, RowWriterAction action) throws IOException {
+    File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    RowWriter writer;
+
+    try {
+      try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        writer = new RowWriter(channel);
+        writer.writeHeader();
+        action.writeRows(writer);
+        writer.drain();
+        channel.force(true);
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tempFile.toPath());
+      throw e;
+    }
+
+    return new SavedCollection(writer.position(), file.lastModified(), rowCount,
+            Arrays.copyOf(writer.checkpointRows, writer.checkpointCount),
+            Arrays.copyOf(writer.checkpointOffsets, writer.checkpointCount), writer.rowsFormatted);
+  }
+
+  private interface RowWriterAction {
+    void writeRows(RowWriter writer) throws IOException;
+  }
+
+  /**
+   * Encodes rows with the platform default charset, as {@code FileWriter} did, into a direct buffer that
+   * is drained to the channel whenever it fills. New checkpoints are only recorded
+   * {@value #CHECKPOINT_INTERVAL} rows apart, but checkpoints carried over from a previous file are always kept.
+   */
+  private static class RowWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private CharBuffer rowChars;
+    private long written;  // Bytes already drained to the channel
+    private int rowsFormatted;
+    private int[] checkpointRows;
+    private long[] checkpointOffsets;
+    private int checkpointCount;
+
+    RowWriter(FileChannel channel){
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+      this.encoder = Charset.defaultCharset().newEncoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.rowChars = CharBuffer.allocate(256);
+      this.checkpointRows = new int[64];
+      this.checkpointOffsets = new long[64];
+    }
+
+    long position(){
+      return written + buffer.position();
+    }
+
+    void writeHeader() throws IOException {
+      encode(CharBuffer.wrap(HEADER));
+    }
+
+    void writeRow(SpellbookCatalogue catalogue, int row) throws IOException {
+      String serialNumber = Integer.toString(catalogue.getSerialNumber(row));
+      String title = catalogue.getTitle(row);
+      String inventor = catalogue.getInventor(row);
+      String type = catalogue.getType(row);
+
+      int length = serialNumber.length() + title.length() + inventor.length() + type.length() + 4;
+      if (rowChars.capacity() < length) {
+        rowChars = CharBuffer.allocate(Math.max(length, rowChars.capacity() * 2));
+      }
+      rowChars.clear();
+      rowChars.put(serialNumber).put(',').put(title).put(',').put(inventor).put(',').put(type).put('\n');
+      rowChars.flip();
+      encode(rowChars);
+      rowsFormatted++;
+    }
+
+    // Copies bytes [from, to) of another file after everything buffered so far
+    void copy(FileChannel source, long from, long to) throws IOException {
+      drain();
+      long position = from;
+      while (position < to) {
+        long transferred = source.transferTo(position, to - position, channel);
+        if (transferred == 0) {  // The previous file was truncated underneath us, so it can never finish
+          throw new IOException("Saved collection ended at byte " + position);
+        }
+        position += transferred;
+      }
+      written += to - from;
+    }
+
+    void checkpoint(int row, long offset){
+      if (checkpointCount > 0 && row - checkpointRows[checkpointCount - 1] < CHECKPOINT_INTERVAL) return;
+      keepCheckpoint(row, offset);
+    }
+
+    void keepCheckpoint(int row, long offset){
+      if (checkpointCount > 0 && checkpointRows[checkpointCount - 1] == row) return;
+
+      if (checkpointCount == checkpointRows.length) {
+        checkpointRows = Arrays.copyOf(checkpointRows, checkpointCount * 2);
+        checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpointCount * 2);
+      }
+      checkpointRows[checkpointCount] = row;
+      checkpointOffsets[checkpointCount] = offset;
+      checkpointCount++;
+    }
+
+    void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        written += channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+      encoder.reset();
+      while (encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+        drain();
+      }
+      while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+        drain();
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes archive snapshots on a background thread so commands are not stalled by snapshot I/O.
+ * At most one snapshot is written at a time; a request made while one is still being written is
+ * skipped, since the next request will capture newer state anyway.
+ */
+public class SnapshotWriter implements AutoCloseable {
+  private final File snapshotFile;
+  private final ExecutorService executor;
+  private Future<?> inFlight;
+
+  /**
+   * Constructs a {@code SnapshotWriter} for the given file.
+   *
+   * @param snapshotFile where snapshots are written
+   */
+  public SnapshotWriter(File snapshotFile){
+    this.snapshotFile = snapshotFile;
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "snapshot-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts writing a captured snapshot in the background, unless a previous write is still running.
+   *
+   * @param snapshot the snapshot to write
+   * @return {@code true} if the write was started
+   */
+  public boolean writeInBackground(ArchiveSnapshot snapshot){
+    if (inFlight != null && !inFlight.isDone()) {
+      return false;
+    }
+    awaitInFlight();  // Reports a failed previous write before retrying
+    inFlight = executor.submit(() -> {
+      try {
+        snapshot.writeTo(snapshotFile);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Waits for any background write to finish, then writes the final snapshot on the calling thread.
+   *
+   * @param snapshot the final snapshot to write
+   * @throws IOException if the final snapshot cannot be written
+   */
+  public void writeFinal(ArchiveSnapshot snapshot) throws IOException {
+    awaitInFlight();
+    snapshot.writeTo(snapshotFile);
+  }
+
+  @Override
+  public void close() {
+    awaitInFlight();
+    executor.shutdown();
+  }
+
+  private void awaitInFlight(){
+    if (inFlight == null) return;
+
+    try {
+      inFlight.get();
+    } catch (ExecutionException e) {
+      System.err.println("Unable to write snapshot: " + e.getCause().getMessage());  // Next snapshot retries
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,18 +1,33 @@
-import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * The {@code SpellBook} class represents a magical book in a library system.
  * Each spell book has a unique serial number, a title, an inventor, a type,
  * and tracks rental history and current renting status.
+ *
+ * <p>Ownership is claimed and released with compare-and-set on the renting student, so two desks can
+ * never rent the same copy. The history list is not synchronized itself: callers hold the spellbook's
+ * monitor while changing or copying it.
+ *
+ * <p>Printable forms and the renting status line are built on first use and cached, since listings
+ * print them far more often than the fields change. The setters drop the cached forms. Caching is
+ * racy in the same harmless way as {@code String.hashCode()}: threads may build a form more than once,
+ * but each build yields an equal, immutable string.
  */
 public class SpellBook {
+  private static final int NOT_RENTED = -1;
+  private static final AtomicIntegerFieldUpdater<SpellBook> STUDENT_RENTING =
+          AtomicIntegerFieldUpdater.newUpdater(SpellBook.class, "studentRenting");
+
   private int serialNumber;
   private String title;
   private String inventor;
   private String type;
-  private int studentRenting;
-  private List<Integer> history;
+  private volatile int studentRenting;
+  private IntLog history;
+  private String shortForm;  // Cached printable forms, null until first needed
+  private String longForm;
+  private RentingStatus rentedStatus;  // Cached "Rented by" line for the last renter it was built for
 
   /**
    * Constructs a new {@code SpellBook} with the specified details.
@@ -28,8 +43,8 @@ public class SpellBook {
     this.title = title;
     this.inventor = inventor;
     this.type = type;
-    this.studentRenting = -1;  // -1 represents not renting in this system
-    this.history = new ArrayList<>();
+    this.studentRenting = NOT_RENTED;  // -1 represents not renting in this system
+    this.history = new IntLog();
   }
 
   public int getSerialNumber() {
@@ -60,9 +75,9 @@ public class SpellBook {
   /**
    * Returns the rental history of the spell book.
    *
-   * @return a list of student IDs who have rented the book
+   * @return the student IDs who have rented and returned the book, oldest first
    */
-  public List<Integer> getHistory() {
+  public IntLog getHistory() {
     return history;
   }
 
@@ -74,19 +89,30 @@ public class SpellBook {
    * @return a formatted string of the spell book details
    */
   public String getPrintableForm(boolean longPresent) {
-    return longPresent ? title + " (" + inventor + ", " + type + ")": title + " (" + inventor + ")";
+    return longPresent ? getLongForm() : getPrintableForm();
   }
 
   public String getPrintableForm(){
-    return title + " (" + inventor + ")";
+    String form = shortForm;
+    if (form == null) {
+      form = title + " (" + inventor + ")";
+      shortForm = form;
+    }
+    return form;
   }
 
   public String getRentingStatus(){
-    if (studentRenting == -1){
+    int renting = studentRenting;  // Read once, another desk may change it meanwhile
+    if (renting == NOT_RENTED){
       return "Currently available.";
-    } else {
-      return "Rented by: " + studentRenting + ".";
     }
+
+    RentingStatus status = rentedStatus;
+    if (status == null || status.studentNumber() != renting) {
+      status = new RentingStatus(renting, "Rented by: " + renting + ".");
+      rentedStatus = status;
+    }
+    return status.line();
   }
 
   public void setSerialNumber(int serialNumber) {
@@ -95,20 +121,43 @@ public class SpellBook {
 
   public void setTitle(String title) {
     this.title = title;
+    clearPrintableForms();
   }
 
   public void setInventor(String inventor) {
     this.inventor = inventor;
+    clearPrintableForms();
   }
 
   public void setType(String type) {
     this.type = type;
+    clearPrintableForms();
   }
 
   public void setStudentRenting(int studentRenting) {
     this.studentRenting = studentRenting;
   }
 
+  /**
+   * Atomically rents the spell book to a student if nobody is renting it.
+   *
+   * @param studentNumber the student ID renting the book
+   * @return {@code true} if the book was available and is now rented, otherwise {@code false}
+   */
+  public boolean tryRent(int studentNumber){
+    return STUDENT_RENTING.compareAndSet(this, NOT_RENTED, studentNumber);
+  }
+
+  /**
+   * Atomically marks the spell book as available if the given student is renting it.
+   *
+   * @param studentNumber the student ID returning the book
+   * @return {@code true} if the student was renting the book and it is now available, otherwise {@code false}
+   */
+  public boolean tryReturn(int studentNumber){
+    return STUDENT_RENTING.compareAndSet(this, studentNumber, NOT_RENTED);
+  }
+
   /**
    * Adds a student ID to the rental history of the spell book.
    *
@@ -117,6 +166,23 @@ public class SpellBook {
   public void addToHistory(int studentNumber){
     history.add(studentNumber);
   }
+
+  private String getLongForm(){
+    String form = longForm;
+    if (form == null) {
+      form = title + " (" + inventor + ", " + type + ")";
+      longForm = form;
+    }
+    return form;
+  }
+
+  private void clearPrintableForms(){
+    shortForm = null;
+    longForm = null;
+  }
+
+  // Renter and line kept in one immutable object, so a racing reader never pairs a line with the wrong renter
+  private record RentingStatus(int studentNumber, String line) {}
 }
 
 
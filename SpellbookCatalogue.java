@@ -0,0 +1,215 @@
+import java.util.PrimitiveIterator;
+import java.util.SortedMap;
+
+/**
+ * Storage engine holding every spellbook in the system, addressed by row. Rows are numbered from 0 in
+ * serial number order, so walking rows {@code 0} to {@code size() - 1} lists the catalogue in order.
+ *
+ * <p>Adding a spellbook may shift the rows after it, so callers hold the archive's catalogue lock:
+ * exclusively while adding, shared while reading rows or renting and returning. Under the shared lock,
+ * renting and returning are the only changes, and they are made atomically per row.
+ *
+ * <p>Two engines exist: {@link HeapCatalogue} keeps a {@code SpellBook} object per copy, and
+ * {@link ColumnarCatalogue} keeps dictionary-encoded columns off the heap for very large catalogues.
+ */
+public interface SpellbookCatalogue {
+  int size();
+
+  boolean isEmpty();
+
+  boolean containsKey(int serialNumber);
+
+  /**
+   * Finds the row holding a serial number.
+   *
+   * @param serialNumber the serial number to look up
+   * @return the row, or -1 if the spellbook is not in the catalogue
+   */
+  int rowOf(int serialNumber);
+
+  /**
+   * Finds the first row whose serial number is greater than the given one, eg. to resume a listing after it.
+   *
+   * @param serialNumber the last serial number already listed, which need not be in the catalogue
+   * @return the row, or {@link #size()} if no spellbook has a greater serial number
+   */
+  int rowAfter(int serialNumber);
+
+  /**
+   * Adds a spellbook at its serial number position, including its renting student and history,
+   * eg. when restoring a snapshot. Replaces any spellbook with the same serial number.
+   *
+   * @param sb the spellbook to add
+   */
+  void add(SpellBook sb);
+
+  int getSerialNumber(int row);
+
+  String getTitle(int row);
+
+  String getInventor(int row);
+
+  String getType(int row);
+
+  /**
+   * Returns the row's printable form, as {@link SpellBook#getPrintableForm(boolean)} formats it.
+   *
+   * @param row         the spellbook's row
+   * @param longPresent whether to include the type
+   * @return the printable form
+   */
+  String getPrintableForm(int row, boolean longPresent);
+
+  /**
+   * Returns the dictionary code of the row's short printable form. Copies of the same spellbook share
+   * a code, so sets of spellbooks can be compared by code instead of by string.
+   *
+   * @param row the spellbook's row
+   * @return the code, for {@link #decodePrintableForm(int)}
+   */
+  int getPrintableFormCode(int row);
+
+  /**
+   * Returns the short printable form for a code from {@link #getPrintableFormCode(int)}.
+   *
+   * @param code the printable form's code
+   * @return the short printable form
+   */
+  String decodePrintableForm(int code);
+
+  /**
+   * Returns the row's renting status, as {@link SpellBook#getRentingStatus()} formats it.
+   *
+   * @param row the spellbook's row
+   * @return the renting status line
+   */
+  String getRentingStatus(int row);
+
+  /**
+   * Returns the student currently renting the row's spellbook.
+   *
+   * @param row the spellbook's row
+   * @return the student ID, or -1 if not rented
+   */
+  int getStudentRenting(int row);
+
+  /**
+   * Atomically rents the row's spellbook to a student if nobody is renting it, and removes it from the available rows.
+   *
+   * @param row           the spellbook's row
+   * @param studentNumber the student renting it
+   * @return {@code true} if the spellbook was available and is now rented, otherwise {@code false}
+   */
+  boolean tryRent(int row, int studentNumber);
+
+  /**
+   * Atomically returns the row's spellbook if the given student is renting it, and makes it available again.
+   *
+   * @param row           the spellbook's row
+   * @param studentNumber the student returning it
+   * @return {@code true} if the student was renting it and it is now available, otherwise {@code false}
+   */
+  boolean tryReturn(int row, int studentNumber);
+
+  /**
+   * Returns the monitor that orders a row's rental side effects (history, loans and journal events)
+   * in the same order its ownership changed.
+   *
+   * @param row the spellbook's row
+   * @return the lock object to synchronize on
+   */
+  Object rentalLock(int row);
+
+  /**
+   * Appends a student to the row's rental history. Callers hold the row's {@link #rentalLock(int)}.
+   *
+   * @param row           the spellbook's row
+   * @param studentNumber the student who returned it
+   */
+  void addToHistory(int row, int studentNumber);
+
+  /**
+   * Copies the row's rental history. Callers hold the row's {@link #rentalLock(int)}.
+   *
+   * @param row the spellbook's row
+   * @return the students who rented and returned it, oldest first
+   */
+  int[] getHistory(int row);
+
+  /**
+   * Copies part of the row's rental history, so a page costs its own length rather than the whole
+   * history's. Callers hold the row's {@link #rentalLock(int)}.
+   *
+   * @param row       the spellbook's row
+   * @param fromIndex position of the first entry to copy, starting at 0 for the oldest
+   * @param toIndex   position after the last entry to copy, clamped to the history's length
+   * @return the students in that part of the history, oldest first, empty if {@code fromIndex} is past the end
+   */
+  int[] getHistory(int row, int fromIndex, int toIndex);
+
+  int availableCount();
+
+  /**
+   * Returns the rows of spellbooks not currently rented, in serial number order, starting from a row.
+   * Skipping the rows before {@code fromRow} costs nothing, so a page of the listing costs only its own rows.
+   *
+   * @param fromRow the first row to consider, eg. 0 for every available row
+   * @return an iterator over the available rows
+   */
+  PrimitiveIterator.OfInt availableRows(int fromRow);
+
+  /**
+   * Returns the rows whose type matches, ignoring case, in serial number order.
+   *
+   * @param type the type to match
+   * @return an iterator over the matching rows
+   */
+  PrimitiveIterator.OfInt rowsWithType(String type);
+
+  /**
+   * Returns the rows whose inventor matches, ignoring case, in serial number order.
+   *
+   * @param inventor the inventor to match
+   * @return an iterator over the matching rows
+   */
+  PrimitiveIterator.OfInt rowsWithInventor(String inventor);
+
+  /**
+   * Finds the spellbooks whose title contains some text, ignoring case.
+   *
+   * @param text the text to search for, at least {@value TitleIndex#MIN_SEARCH_LENGTH} characters
+   * @return the matching serial numbers in ascending order
+   * @throws IllegalArgumentException if the text is shorter than {@value TitleIndex#MIN_SEARCH_LENGTH} characters
+   */
+  int[] serialsWithTitleContaining(String text);
+
+  /**
+   * Returns the number of copies of each spellbook, keyed by short printable form in alphabetical order.
+   *
+   * @return the copy counts
+   */
+  SortedMap<String, Integer> copyCounts();
+
+  /**
+   * Returns the number of spellbooks of each type, in alphabetical order of type.
+   *
+   * @return the type counts
+   */
+  SortedMap<String, Integer> typeCounts();
+
+  /**
+   * Returns the number of spellbooks by each inventor, in alphabetical order of inventor.
+   *
+   * @return the inventor counts
+   */
+  SortedMap<String, Integer> inventorCounts();
+
+  /**
+   * Returns the row as a {@code SpellBook}, including renting student and history, eg. for a snapshot.
+   * Changing the returned object may or may not change the catalogue, so treat it as read-only.
+   *
+   * @param row the spellbook's row
+   * @return the spellbook
+   */
+  SpellBook toSpellBook(int row);
+}
@@ -0,0 +1,134 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ordered store of spellbooks keyed by their {@code int} serial number.
+ * Entries are kept sorted by serial number at insert time, so walking the store from index 0 to
+ * {@code size() - 1} visits spellbooks in serial order without any sorting or copying.
+ */
+public class SpellbookStore {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int[] serialNumbers;
+  private SpellBook[] spellbooks;
+  private int size;
+  private final List<SpellBook> valuesView;
+
+  /**
+   * Constructs an empty {@code SpellbookStore}.
+   */
+  public SpellbookStore(){
+    this.serialNumbers = new int[INITIAL_CAPACITY];
+    this.spellbooks = new SpellBook[INITIAL_CAPACITY];
+    this.size = 0;
+    this.valuesView = new AbstractList<>() {
+      @Override
+      public SpellBook get(int index) {
+        return valueAt(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(int serialNumber) {
+    return indexOf(serialNumber) >= 0;
+  }
+
+  /**
+   * Returns the spellbook with the given serial number.
+   *
+   * @param serialNumber the serial number to look up
+   * @return the matching spellbook, or {@code null} if it is not in the store
+   */
+  public SpellBook get(int serialNumber) {
+    int index = indexOf(serialNumber);
+    return index >= 0 ? spellbooks[index] : null;
+  }
+
+  /**
+   * Returns the spellbook at the given position in serial number order.
+   *
+   * @param index position in the store, from 0 to {@code size() - 1}
+   * @return the spellbook at that position
+   */
+  public SpellBook valueAt(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+    return spellbooks[index];
+  }
+
+  /**
+   * Inserts a spellbook at its serial number position, replacing any spellbook with the same serial number.
+   * Serial numbers arriving in ascending order (eg. a sorted csv file) are appended without shifting.
+   *
+   * @param sb the spellbook to store
+   */
+  public void put(SpellBook sb) {
+    int serialNumber = sb.getSerialNumber();
+
+    // Fast path for in-order inserts
+    if (size == 0 || serialNumbers[size - 1] < serialNumber) {
+      ensureCapacity();
+      serialNumbers[size] = serialNumber;
+      spellbooks[size] = sb;
+      size++;
+      return;
+    }
+
+    int index = indexOf(serialNumber);
+    if (index >= 0) {
+      spellbooks[index] = sb;
+      return;
+    }
+
+    int insertionPoint = -(index + 1);
+    ensureCapacity();
+    System.arraycopy(serialNumbers, insertionPoint, serialNumbers, insertionPoint + 1, size - insertionPoint);
+    System.arraycopy(spellbooks, insertionPoint, spellbooks, insertionPoint + 1, size - insertionPoint);
+    serialNumbers[insertionPoint] = serialNumber;
+    spellbooks[insertionPoint] = sb;
+    size++;
+  }
+
+  /**
+   * Returns a read-only list view of the stored spellbooks in serial number order.
+   * The view is backed by the store, so it reflects later inserts.
+   *
+   * @return the spellbooks sorted by serial number
+   */
+  public List<SpellBook> values() {
+    return valuesView;
+  }
+
+  /**
+   * Finds the position of a serial number, following the {@code Arrays.binarySearch} return convention.
+   *
+   * @param serialNumber the serial number to look up
+   * @return its position from 0 to {@code size() - 1}, or {@code -(insertion point) - 1} if it is not in the store
+   */
+  public int indexOf(int serialNumber) {
+    return Arrays.binarySearch(serialNumbers, 0, size, serialNumber);
+  }
+
+  private void ensureCapacity() {
+    if (size == serialNumbers.length) {
+      int newCapacity = serialNumbers.length * 2;
+      serialNumbers = Arrays.copyOf(serialNumbers, newCapacity);
+      spellbooks = Arrays.copyOf(spellbooks, newCapacity);
+    }
+  }
+}
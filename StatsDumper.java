@@ -0,0 +1,92 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the {@code STATS} report to a file on a background thread at a fixed interval, and once more
+ * when closed. Each report is written to a temporary file and renamed over the last one, so a reader
+ * never sees a half-written report.
+ */
+public class StatsDumper implements AutoCloseable {
+  private final CommandStats stats;
+  private final File statsFile;
+  private final ScheduledExecutorService executor;
+
+  private StatsDumper(CommandStats stats, File statsFile){
+    this.stats = stats;
+    this.statsFile = statsFile;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "stats-dumper");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Creates a {@code StatsDumper} and schedules its first dump one interval from now.
+   *
+   * @param stats           the counters to report
+   * @param statsFile       where reports are written
+   * @param intervalSeconds seconds between reports, at least 1
+   * @return the running dumper
+   */
+  public static StatsDumper start(CommandStats stats, File statsFile, long intervalSeconds){
+    StatsDumper dumper = new StatsDumper(stats, statsFile);
+    // Scheduled only once constructed, so the dumper thread never sees a partly constructed dumper
+    dumper.executor.scheduleAtFixedRate(dumper::dumpQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    return dumper;
+  }
+
+  /**
+   * Writes the current report to the stats file on the calling thread.
+   *
+   * @throws IOException if the report cannot be written
+   */
+  public void dump() throws IOException {
+    StringBuilder report = new StringBuilder();
+    CommandOutput reportOut = new CommandOutput(report);
+    stats.printTo(reportOut);
+    reportOut.flush();
+
+    Path target = statsFile.toPath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    try {
+      Files.writeString(temp, report, StandardCharsets.UTF_8);
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  /**
+   * Stops the periodic dumps and writes a final report.
+   *
+   * @throws IOException if the final report cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);  // A dump already running would race the final one
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    dump();
+  }
+
+  // A failed periodic dump is reported and retried at the next interval
+  private void dumpQuietly(){
+    try {
+      dump();
+    } catch (IOException e) {
+      System.err.println("Unable to write stats: " + e.getMessage());
+    }
+  }
+}
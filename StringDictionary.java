@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding for repeated strings such as titles, inventors and types. Each distinct value
+ * is stored once and given a small {@code int} code in the order values are first seen, so a column
+ * of values can be held as codes and compared by code instead of by string, and every copy of a value
+ * can share one canonical {@code String} instance.
+ *
+ * <p>Lookups are lock-free and new values are encoded one at a time, so parallel loaders can share a dictionary.
+ */
+public class StringDictionary {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<String, Integer> codes;
+  private volatile String[] values;  // Written before a value's code is published in codes
+
+  /**
+   * Constructs an empty {@code StringDictionary}.
+   */
+  public StringDictionary(){
+    this.codes = new ConcurrentHashMap<>();
+    this.values = new String[INITIAL_CAPACITY];
+  }
+
+  public int size(){
+    return codes.size();
+  }
+
+  /**
+   * Returns the code for a value, assigning the next code if the value is new.
+   *
+   * @param value the value to encode
+   * @return the value's code, from 0 to {@code size() - 1}
+   */
+  public int encode(String value){
+    Integer code = codes.get(value);
+    return code != null ? code : encodeNew(value);
+  }
+
+  /**
+   * Returns the canonical instance of a value, adding the value if it is new. Storing the canonical
+   * instance instead of a freshly parsed copy lets every copy of a title share one {@code String}.
+   *
+   * @param value the value to intern
+   * @return an equal string, the same instance for every equal value
+   */
+  public String intern(String value){
+    return decode(encode(value));
+  }
+
+  /**
+   * Returns the code of a value already in the dictionary, without adding it.
+   *
+   * @param value the value to look up
+   * @return the value's code, or -1 if it has never been encoded
+   */
+  public int codeOf(String value){
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  /**
+   * Returns the value for a code.
+   *
+   * @param code a code returned by {@link #encode(String)}
+   * @return the canonical instance of the value
+   */
+  public String decode(int code){
+    return values[code];
+  }
+
+  /**
+   * Marks which codes hold a value equal to the search item ignoring case, as {@code TYPE} and
+   * {@code INVENTOR} match. Comparing each distinct value once lets a column scan match by code.
+   *
+   * @param searchItem the value to match
+   * @return a flag per code, {@code true} where the value matches
+   */
+  public boolean[] matchIgnoreCase(String searchItem){
+    boolean[] matches = new boolean[size()];
+    String[] current = values;  // Read after the size, so it holds every counted value
+    for (int code = 0; code < matches.length; code++) {
+      matches[code] = current[code].equalsIgnoreCase(searchItem);
+    }
+    return matches;
+  }
+
+  private synchronized int encodeNew(String value){
+    Integer code = codes.get(value);
+    if (code != null) return code;  // Another thread encoded it first
+
+    int newCode = codes.size();
+    String[] current = values;
+    if (newCode == current.length) {
+      current = Arrays.copyOf(current, newCode * 2);
+    }
+    current[newCode] = value;
+    values = current;
+    codes.put(value, newCode);
+    return newCode;
+  }
+}
@@ -1,16 +1,21 @@
-import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a {@code student} who can rent spell books.
  * Each student is assigned a unique ID and maintains a record of current and past rentals.
+ *
+ * <p>IDs are handed out atomically, so students added from several desks at once never share a number.
+ * The rental lists are not synchronized themselves: callers hold the student's monitor while changing
+ * or copying them.
  */
 public class Student {
-  private static int nextStudentId = 100000;
+  private static final int FIRST_STUDENT_ID = 100000;
+  private static final AtomicInteger nextStudentId = new AtomicInteger(FIRST_STUDENT_ID);
   private int number;
   private String name;
-  private List<Integer> currentSpellbooks;
-  private List<Integer> history;
+  private IntLinkedSet currentSpellbooks;  // In the order they were rented
+  private IntLog history;
+  private CompressedBitmap returnedTitles;  // Printable form codes of the spellbooks in history, for COMMON
 
   /**
    * Constructs a new {@code Student} with a unique student ID and the given name.
@@ -18,10 +23,26 @@ public class Student {
    * @param name the name of the student
    */
   public Student(String name){
-    this.number = nextStudentId++;
+    this.number = nextStudentId.getAndIncrement();
     this.name = name;
-    this.currentSpellbooks = new ArrayList<>();
-    this.history = new ArrayList<>();
+    this.currentSpellbooks = new IntLinkedSet();
+    this.history = new IntLog();
+    this.returnedTitles = new CompressedBitmap();
+  }
+
+  /**
+   * Constructs a {@code Student} with an already assigned student ID, eg. when restoring a snapshot.
+   * Does not advance the student ID counter.
+   *
+   * @param number the student's existing ID
+   * @param name   the name of the student
+   */
+  public Student(int number, String name){
+    this.number = number;
+    this.name = name;
+    this.currentSpellbooks = new IntLinkedSet();
+    this.history = new IntLog();
+    this.returnedTitles = new CompressedBitmap();
   }
 
   public int getNumber() {
@@ -32,14 +53,34 @@ public class Student {
     return name;
   }
 
-  public List<Integer> getCurrentSpellbooks() {
+  /**
+   * Returns the serial numbers of the spell books currently rented, in the order they were rented.
+   *
+   * @return the live set of current loans
+   */
+  public IntLinkedSet getCurrentSpellbooks() {
     return currentSpellbooks;
   }
 
-  public List<Integer> getHistory() {
+  /**
+   * Returns the serial numbers of every spell book returned by the student, oldest first.
+   *
+   * @return the live rental history
+   */
+  public IntLog getHistory() {
     return history;
   }
 
+  /**
+   * Returns the catalogue's printable form codes of every distinct spell book in the history, so copies
+   * of the same spell book count once.
+   *
+   * @return the live set of returned titles
+   */
+  public CompressedBitmap getReturnedTitles() {
+    return returnedTitles;
+  }
+
   public void setName(String name) {
     this.name = name;
   }
@@ -61,8 +102,13 @@ public class Student {
     history.add(serialNumber);
   }
 
-  public void clearCurrentSpellbooks(){
-    currentSpellbooks.clear();
+  /**
+   * Records the printable form code of a returned spell book, alongside {@link #addToHistory(int)}.
+   *
+   * @param titleCode the code from {@link SpellbookCatalogue#getPrintableFormCode(int)}
+   */
+  public void addReturnedTitle(int titleCode){
+    returnedTitles.add(titleCode);
   }
 
   /**
@@ -71,14 +117,31 @@ public class Student {
    * @param serialNumber the serial number of the spell book to remove
    */
   public void removeSpellbook(int serialNumber){
-    currentSpellbooks.remove(Integer.valueOf(serialNumber));
+    currentSpellbooks.remove(serialNumber);
+  }
+
+  public static int getNextStudentId() {
+    return nextStudentId.get();
+  }
+
+  public static void setNextStudentId(int studentId) {
+    nextStudentId.set(studentId);
+  }
+
+  /**
+   * Makes sure the given student ID is never handed out again, eg. after restoring that student from the journal.
+   *
+   * @param studentId an ID already in use
+   */
+  public static void reserveStudentId(int studentId) {
+    nextStudentId.accumulateAndGet(studentId + 1, Math::max);
   }
 
   /**
    * Resets the student ID counter to its initial value between testcases.
    */
   public static void resetStudentId() {
-    nextStudentId = 100000;
+    nextStudentId.set(FIRST_STUDENT_ID);
   }
 
 }
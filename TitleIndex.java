@@ -0,0 +1,244 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Trigram index over spellbook titles for {@code SEARCH}, finding every spellbook whose title contains
+ * some text, ignoring case. Titles are identified by the catalogue's dictionary code, and every
+ * three-character sequence of a title lists the titles containing it, so a search only checks the titles
+ * listed under the query's rarest trigram instead of every title in the catalogue.
+ *
+ * <p>Everything is kept in flat arrays: the copies of each title are a chain of serial numbers through
+ * shared entry arrays, and trigrams live in an open-addressed table. Indexing a copy of a known title
+ * is two array writes, and even a catalogue of a million distinct titles adds few objects for the
+ * garbage collector to trace.
+ *
+ * <p>Built incrementally as spellbooks are added. Like the catalogue's other indexes, it is changed
+ * only while the catalogue lock is write-held and read under the shared lock.
+ */
+public class TitleIndex {
+  /** Shortest text a search accepts, since shorter text has no trigram to narrow the titles down by. */
+  public static final int MIN_SEARCH_LENGTH = 3;
+
+  private static final int GRAM_LENGTH = MIN_SEARCH_LENGTH;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final long OCCUPIED = 1L << 63;  // Set in every stored trigram key, so 0 marks an empty slot
+  private static final int NO_ENTRY = -1;
+
+  private String[] titles;  // Indexed by title code, null for codes not yet seen
+  private int[] firstEntries;  // Indexed by title code, NO_ENTRY until its first copy is added
+  private int[] lastEntries;
+  private int[] entrySerials;  // One entry per copy
+  private int[] nextEntries;  // Next copy of the same title, or NO_ENTRY
+  private int entryCount;
+
+  private long[] gramKeys;  // Open-addressed on trigram key, OCCUPIED bit set
+  private IntLog[] gramTitles;  // Title codes holding the trigram, ascending, each listed once
+  private int gramCount;
+
+  /**
+   * Constructs an empty {@code TitleIndex}.
+   */
+  public TitleIndex(){
+    this.titles = new String[INITIAL_CAPACITY];
+    this.firstEntries = new int[INITIAL_CAPACITY];
+    this.lastEntries = new int[INITIAL_CAPACITY];
+    Arrays.fill(firstEntries, NO_ENTRY);
+    this.entrySerials = new int[INITIAL_CAPACITY];
+    this.nextEntries = new int[INITIAL_CAPACITY];
+    this.gramKeys = new long[INITIAL_CAPACITY];
+    this.gramTitles = new IntLog[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Adds a spellbook under its title. A serial number added again, eg. when a catalogue replaces a copy,
+   * is still only returned once by a search.
+   *
+   * @param serialNumber the spellbook's serial number
+   * @param titleCode    the title's code in the catalogue's title dictionary
+   * @param title        the title
+   */
+  public void add(int serialNumber, int titleCode, String title){
+    if (titleCode >= titles.length) {
+      growTitles(titleCode + 1);
+    }
+    if (titles[titleCode] == null) {  // First copy of this title, so index its trigrams
+      titles[titleCode] = title;
+      for (int i = 0; i + GRAM_LENGTH <= title.length(); i++) {
+        int slot = slotForAdd(trigramAt(title, i));  // May grow the table, so index it afterwards
+        IntLog titlesWithGram = gramTitles[slot];
+        if (titlesWithGram.isEmpty() || titlesWithGram.get(titlesWithGram.size() - 1) != titleCode) {
+          titlesWithGram.add(titleCode);  // A title repeating a trigram is listed once
+        }
+      }
+    }
+
+    if (entryCount == entrySerials.length) {
+      entrySerials = Arrays.copyOf(entrySerials, entryCount * 2);
+      nextEntries = Arrays.copyOf(nextEntries, entryCount * 2);
+    }
+    int entry = entryCount++;
+    entrySerials[entry] = serialNumber;
+    nextEntries[entry] = NO_ENTRY;
+    if (firstEntries[titleCode] == NO_ENTRY) {
+      firstEntries[titleCode] = entry;
+    } else {
+      nextEntries[lastEntries[titleCode]] = entry;
+    }
+    lastEntries[titleCode] = entry;
+  }
+
+  /**
+   * Finds every spellbook whose title contains the text, ignoring case.
+   *
+   * @param text the text to search for, at least {@value #MIN_SEARCH_LENGTH} characters
+   * @return the matching serial numbers in ascending order, empty if there are none
+   * @throws IllegalArgumentException if the text is shorter than {@value #MIN_SEARCH_LENGTH} characters
+   */
+  public int[] serialsContaining(String text){
+    if (text.length() < MIN_SEARCH_LENGTH) {
+      throw new IllegalArgumentException("Search text shorter than " + MIN_SEARCH_LENGTH + " characters: " + text);
+    }
+
+    IntLog[] titlesWithGrams = new IntLog[text.length() - GRAM_LENGTH + 1];
+    for (int i = 0; i < titlesWithGrams.length; i++) {
+      titlesWithGrams[i] = findGram(trigramAt(text, i));
+      if (titlesWithGrams[i] == null) return new int[0];  // No title has this trigram, so none can contain the text
+    }
+
+    // Intersect from the rarest trigram up, so the candidates shrink as early as possible
+    Arrays.sort(titlesWithGrams, Comparator.comparingInt(IntLog::size));
+    int[] candidates = titlesWithGrams[0].toArray();
+    int candidateCount = candidates.length;
+    for (int i = 1; i < titlesWithGrams.length && candidateCount > 0; i++) {
+      candidateCount = retainAll(candidates, candidateCount, titlesWithGrams[i]);
+    }
+
+    IntLog matchingSerials = new IntLog();
+    for (int i = 0; i < candidateCount; i++) {
+      int titleCode = candidates[i];
+      if (!containsIgnoreCase(titles[titleCode], text)) continue;  // Trigrams out of sequence
+
+      for (int entry = firstEntries[titleCode]; entry != NO_ENTRY; entry = nextEntries[entry]) {
+        matchingSerials.add(entrySerials[entry]);
+      }
+    }
+
+    int[] result = matchingSerials.toArray();
+    Arrays.sort(result);  // Copies of different titles interleave by serial number
+
+    int distinct = 0;
+    for (int i = 0; i < result.length; i++) {
+      if (distinct == 0 || result[i] != result[distinct - 1]) {
+        result[distinct++] = result[i];
+      }
+    }
+    return distinct == result.length ? result : Arrays.copyOf(result, distinct);
+  }
+
+  // Keeps the candidates also in the ascending list, galloping through the list since it is usually far longer
+  private static int retainAll(int[] candidates, int candidateCount, IntLog titleCodes){
+    int kept = 0;
+    int low = 0;
+    for (int i = 0; i < candidateCount && low < titleCodes.size(); i++) {
+      int candidate = candidates[i];
+
+      int step = 1;
+      int high = low;
+      while (high < titleCodes.size() && titleCodes.get(high) < candidate) {
+        low = high + 1;
+        high += step;
+        step <<= 1;
+      }
+      high = Math.min(high, titleCodes.size() - 1);
+      while (low < high) {  // First position in [low, high] holding candidate or more
+        int middle = (low + high) >>> 1;
+        if (titleCodes.get(middle) < candidate) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+
+      if (low < titleCodes.size() && titleCodes.get(low) == candidate) {
+        candidates[kept++] = candidate;
+      }
+    }
+    return kept;
+  }
+
+  // Compares characters as String.equalsIgnoreCase does, so SEARCH folds case like TYPE and INVENTOR
+  private static boolean containsIgnoreCase(String title, String text){
+    char first = fold(text.charAt(0));
+    for (int start = 0; start + text.length() <= title.length(); start++) {
+      if (fold(title.charAt(start)) == first && title.regionMatches(true, start, text, 0, text.length())) return true;
+    }
+    return false;
+  }
+
+  // Packs three case-folded characters into one key, so neither indexing nor searching builds a String
+  private static long trigramAt(String value, int index){
+    return OCCUPIED | (long) fold(value.charAt(index)) << 32 | (long) fold(value.charAt(index + 1)) << 16
+            | fold(value.charAt(index + 2));
+  }
+
+  private static char fold(char c){
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  private IntLog findGram(long key){
+    int mask = gramKeys.length - 1;
+    for (int slot = slotFor(key, mask); gramKeys[slot] != 0; slot = (slot + 1) & mask) {
+      if (gramKeys[slot] == key) return gramTitles[slot];
+    }
+    return null;
+  }
+
+  // Returns the trigram's slot, adding an empty title list if it is new
+  private int slotForAdd(long key){
+    if (gramCount * 2 >= gramKeys.length) {
+      growGrams();
+    }
+
+    int mask = gramKeys.length - 1;
+    int slot = slotFor(key, mask);
+    while (gramKeys[slot] != 0) {
+      if (gramKeys[slot] == key) return slot;
+      slot = (slot + 1) & mask;
+    }
+    gramKeys[slot] = key;
+    gramTitles[slot] = new IntLog();
+    gramCount++;
+    return slot;
+  }
+
+  private static int slotFor(long key, int mask){
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;  // Fibonacci hashing spreads neighbouring characters
+  }
+
+  private void growGrams(){
+    long[] oldKeys = gramKeys;
+    IntLog[] oldTitles = gramTitles;
+    gramKeys = new long[oldKeys.length * 2];
+    gramTitles = new IntLog[oldKeys.length * 2];
+
+    int mask = gramKeys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == 0) continue;
+      int slot = slotFor(oldKeys[i], mask);
+      while (gramKeys[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      gramKeys[slot] = oldKeys[i];
+      gramTitles[slot] = oldTitles[i];
+    }
+  }
+
+  private void growTitles(int minCapacity){
+    int oldCapacity = titles.length;
+    int newCapacity = Math.max(minCapacity, oldCapacity * 2);
+    titles = Arrays.copyOf(titles, newCapacity);
+    firstEntries = Arrays.copyOf(firstEntries, newCapacity);
+    lastEntries = Arrays.copyOf(lastEntries, newCapacity);
+    Arrays.fill(firstEntries, oldCapacity, newCapacity, NO_ENTRY);
+  }
+}
@@ -0,0 +1,107 @@
+package archive.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Drives an archive's {@code CommandHandler} from the benchmarks' package. The archive's classes are in
+ * the default package, which a named package cannot import, so they are looked up by name once and
+ * called through constant method handles, which the JIT inlines like direct calls.
+ */
+final class ArchiveDriver {
+  private static final MethodHandle NEW_OUTPUT;  // CommandOutput(Appendable)
+  private static final MethodHandle NEW_HANDLER;  // CommandHandler(CommandOutput, SpellbookCatalogue)
+  private static final MethodHandle NEW_HEAP_CATALOGUE;
+  private static final MethodHandle NEW_COLUMNAR_CATALOGUE;
+  private static final MethodHandle HANDLE_COMMAND;  // CommandHandler.handleCommand(String), exit flag dropped
+  private static final MethodHandle OUTPUT_LENGTH;  // int CommandOutput.length()
+  private static final MethodHandle FLUSH;  // void CommandOutput.flush()
+  private static final MethodHandle RESET_STUDENT_ID;  // static void Student.resetStudentId()
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> output = Class.forName("CommandOutput");
+      Class<?> handler = Class.forName("CommandHandler");
+      Class<?> catalogue = Class.forName("SpellbookCatalogue");
+
+      // Erased to Object so every call site can use invokeExact
+      NEW_OUTPUT = lookup.findConstructor(output, MethodType.methodType(void.class, Appendable.class))
+              .asType(MethodType.methodType(Object.class, Appendable.class));
+      NEW_HANDLER = lookup.findConstructor(handler, MethodType.methodType(void.class, output, catalogue))
+              .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+      NEW_HEAP_CATALOGUE = lookup.findConstructor(Class.forName("HeapCatalogue"), MethodType.methodType(void.class))
+              .asType(MethodType.methodType(Object.class));
+      NEW_COLUMNAR_CATALOGUE = lookup.findConstructor(Class.forName("ColumnarCatalogue"), MethodType.methodType(void.class))
+              .asType(MethodType.methodType(Object.class));
+      HANDLE_COMMAND = lookup.findVirtual(handler, "handleCommand", MethodType.methodType(boolean.class, String.class))
+              .asType(MethodType.methodType(void.class, Object.class, String.class));
+      OUTPUT_LENGTH = lookup.findVirtual(output, "length", MethodType.methodType(int.class))
+              .asType(MethodType.methodType(int.class, Object.class));
+      FLUSH = lookup.findVirtual(output, "flush", MethodType.methodType(void.class))
+              .asType(MethodType.methodType(void.class, Object.class));
+      RESET_STUDENT_ID = lookup.findStatic(Class.forName("Student"), "resetStudentId", MethodType.methodType(void.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Object output;
+  private final Object handler;
+
+  /**
+   * Constructs an empty archive. Student IDs restart from the first ID, so students added to this
+   * archive get the same numbers in every trial.
+   *
+   * @param engine {@code heap} or {@code columnar}, as chosen by the {@code --columnar} option
+   */
+  ArchiveDriver(String engine){
+    try {
+      RESET_STUDENT_ID.invokeExact();
+      this.output = (Object) NEW_OUTPUT.invokeExact((Appendable) DiscardingAppendable.INSTANCE);
+      Object catalogue = engine.equals("columnar")
+              ? (Object) NEW_COLUMNAR_CATALOGUE.invokeExact()
+              : (Object) NEW_HEAP_CATALOGUE.invokeExact();
+      this.handler = (Object) NEW_HANDLER.invokeExact(output, catalogue);
+    } catch (Throwable e) {
+      throw new IllegalStateException("Could not construct the archive", e);
+    }
+  }
+
+  /**
+   * Runs one command and discards what it printed.
+   *
+   * @param command the command line, as typed at the prompt
+   * @return the number of characters printed, for a {@code Blackhole} to consume
+   * @throws Throwable whatever the command handler throws
+   */
+  int run(String command) throws Throwable {
+    HANDLE_COMMAND.invokeExact(handler, command);
+    int printed = (int) OUTPUT_LENGTH.invokeExact(output);
+    FLUSH.invokeExact(output);  // Clears the buffer, so output never accumulates across invocations
+    return printed;
+  }
+
+  /**
+   * Sink for flushed output, so the benchmarks measure producing the output rather than writing it.
+   */
+  private static final class DiscardingAppendable implements Appendable {
+    static final DiscardingAppendable INSTANCE = new DiscardingAppendable();
+
+    @Override
+    public Appendable append(CharSequence csq) {
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package archive.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic spellbook collections in the archive's csv format. Each title has about
+ * {@link #COPIES_PER_TITLE} copies, and every copy of a title shares its inventor and type, as real
+ * collections do. Serial numbers run from 1 to the number of books in a fixed shuffled order, so any
+ * serial number in that range exists and loading sees rows out of order.
+ */
+final class CatalogueGenerator {
+  static final int COPIES_PER_TITLE = 10;
+  static final int INVENTORS = 1000;
+  static final int TYPES = 20;
+  private static final long SEED = 42;
+
+  private CatalogueGenerator(){}
+
+  /**
+   * Writes a collection to a new temporary file, which is deleted when the JVM exits.
+   *
+   * @param books the number of spellbooks to write
+   * @return the csv file
+   * @throws IOException if the file cannot be written
+   */
+  static Path write(int books) throws IOException {
+    Path csv = Files.createTempFile("spellbooks-" + books + "-", ".csv");
+    csv.toFile().deleteOnExit();
+
+    int[] serialNumbers = shuffledSerialNumbers(books);
+    int titles = Math.max(1, books / COPIES_PER_TITLE);
+    try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+      writer.write("serialNumber,title,inventor,type\n");
+      for (int i = 0; i < books; i++) {
+        int serialNumber = serialNumbers[i];
+        int title = serialNumber % titles;
+        writer.write(serialNumber + ",Title " + title + "," + inventorName(title) + "," + typeName(title) + "\n");
+      }
+    }
+    return csv;
+  }
+
+  /**
+   * Writes spellbooks that continue a collection of the given size, with serial numbers from
+   * {@code books + 1} upwards in order, to a new temporary file deleted when the JVM exits.
+   *
+   * @param books  the size of the collection they continue
+   * @param extras the number of spellbooks to write
+   * @return the csv file
+   * @throws IOException if the file cannot be written
+   */
+  static Path writeExtras(int books, int extras) throws IOException {
+    Path csv = Files.createTempFile("extras-" + books + "-", ".csv");
+    csv.toFile().deleteOnExit();
+
+    int titles = Math.max(1, books / COPIES_PER_TITLE);
+    try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+      writer.write("serialNumber,title,inventor,type\n");
+      for (int serialNumber = books + 1; serialNumber <= books + extras; serialNumber++) {
+        int title = serialNumber % titles;
+        writer.write(serialNumber + ",Title " + title + "," + inventorName(title) + "," + typeName(title) + "\n");
+      }
+    }
+    return csv;
+  }
+
+  static String inventorName(int title){
+    return "Inventor " + (title % INVENTORS);
+  }
+
+  static String typeName(int title){
+    return "Type " + (title % TYPES);
+  }
+
+  // Fisher-Yates shuffle of 1..books with a fixed seed, so every run loads the same file
+  private static int[] shuffledSerialNumbers(int books){
+    int[] serialNumbers = new int[books];
+    for (int i = 0; i < books; i++) {
+      serialNumbers[i] = i + 1;
+    }
+    SplittableRandom random = new SplittableRandom(SEED);
+    for (int i = books - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = serialNumbers[i];
+      serialNumbers[i] = serialNumbers[j];
+      serialNumbers[j] = swap;
+    }
+    return serialNumbers;
+  }
+}
@@ -0,0 +1,250 @@
+package archive.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times {@code CommandHandler.handleCommand} for each command on generated catalogues of 1K to 10M
+ * spellbooks, on both storage engines. Output is produced into the archive's buffer as usual and then
+ * discarded, so results cover parsing, lookup and formatting but not terminal or socket writes.
+ *
+ * <p>Run a subset with eg. {@code java -jar benchmarks/target/benchmarks.jar listAll -p books=1000}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Dfile.encoding=UTF-8"})  // Room for 10M spellbooks on the heap engine
+public class CommandBenchmarks {
+  static final int STUDENTS = 50;
+  static final int COMMON_STUDENTS = 10;
+  static final int MAX_RETURNS_PER_STUDENT = 1000;
+  static final int FIRST_STUDENT_ID = 100000;
+
+  /**
+   * An archive loaded with a generated collection, plus students who have each rented and returned a
+   * window of spellbooks. Neighbouring windows overlap, so {@code COMMON} has shared titles to find.
+   */
+  @State(Scope.Benchmark)
+  public static class LoadedArchive {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int books;
+
+    @Param({"heap", "columnar"})
+    String engine;
+
+    ArchiveDriver archive;
+    String typeCommand;
+    String inventorCommand;
+    String commonCommand;
+    int nextRental;  // Serial number index for rentRelinquish, so each invocation rents a different copy
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+      Path collection = CatalogueGenerator.write(books);
+      archive = new ArchiveDriver(engine);
+      archive.run("ADD COLLECTION " + collection);
+
+      int returnsPerStudent = Math.min(books / 2, MAX_RETURNS_PER_STUDENT);
+      int windowStep = Math.max(1, returnsPerStudent / COMMON_STUDENTS);
+      for (int student = 0; student < STUDENTS; student++) {
+        archive.run("ADD STUDENT Student " + student);
+        int studentNumber = FIRST_STUDENT_ID + student;
+        for (int i = 0; i < returnsPerStudent; i++) {
+          int serialNumber = 1 + (student * windowStep + i) % books;
+          archive.run("RENT " + studentNumber + " " + serialNumber);
+          archive.run("RELINQUISH " + studentNumber + " " + serialNumber);
+        }
+      }
+
+      typeCommand = "TYPE " + CatalogueGenerator.typeName(3);
+      inventorCommand = "INVENTOR " + CatalogueGenerator.inventorName(7);
+      StringJoiner common = new StringJoiner(" ", "COMMON ", "");
+      for (int student = 0; student < COMMON_STUDENTS; student++) {
+        common.add(Integer.toString(FIRST_STUDENT_ID + student));
+      }
+      commonCommand = common.toString();
+    }
+  }
+
+  /**
+   * An archive loaded with a generated collection and saved once, so every {@code SAVE COLLECTION}
+   * measured against it finds the file up to date. Subclasses change the file or the archive before each
+   * measurement instead, so no measurement depends on what the previous one saved.
+   */
+  @State(Scope.Benchmark)
+  public static class SavedArchive {
+    static final int EXTRAS = 256;  // More than the warmup and measurement iterations of a patch trial
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int books;
+
+    @Param({"heap", "columnar"})
+    String engine;
+
+    ArchiveDriver archive;
+    Path savedCollection;
+    String saveCommand;
+    String extrasFile;
+    int extrasAdded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+      archive = new ArchiveDriver(engine);
+      archive.run("ADD COLLECTION " + CatalogueGenerator.write(books));
+      extrasFile = CatalogueGenerator.writeExtras(books, EXTRAS).toString();
+
+      savedCollection = Files.createTempFile("saved-" + books + "-", ".csv");
+      saveCommand = "SAVE COLLECTION " + savedCollection;
+      archive.run(saveCommand);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(savedCollection);
+    }
+  }
+
+  /**
+   * A saved archive whose file is deleted before each measurement, so the save writes every row.
+   */
+  @State(Scope.Benchmark)
+  public static class DeletedSave extends SavedArchive {
+    @Setup(Level.Invocation)
+    public void deleteSavedFile() throws IOException {
+      Files.delete(savedCollection);
+    }
+  }
+
+  /**
+   * A saved archive with one spellbook added before each measurement, so the save copies every
+   * previous row from the file and formats only the new one.
+   */
+  @State(Scope.Benchmark)
+  public static class OneAddedSave extends SavedArchive {
+    @Setup(Level.Invocation)
+    public void addSpellbook() throws Throwable {
+      if (extrasAdded == EXTRAS) {
+        throw new IllegalStateException("Only " + EXTRAS + " spellbooks to add, run fewer iterations");
+      }
+      archive.run("ADD SPELLBOOK " + extrasFile + " " + (books + ++extrasAdded));
+    }
+  }
+
+  /**
+   * A generated collection file and an empty archive to load it into, recreated before every
+   * measurement so each {@code ADD COLLECTION} starts from nothing.
+   */
+  @State(Scope.Benchmark)
+  public static class EmptyArchive {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int books;
+
+    @Param({"heap", "columnar"})
+    String engine;
+
+    ArchiveDriver archive;
+    String addCommand;
+
+    @Setup(Level.Trial)
+    public void writeCollection() throws IOException {
+      addCommand = "ADD COLLECTION " + CatalogueGenerator.write(books);
+    }
+
+    @Setup(Level.Iteration)
+    public void createArchive() {
+      archive = new ArchiveDriver(engine);
+    }
+  }
+
+  @Benchmark
+  public int listAll(LoadedArchive state) throws Throwable {
+    return state.archive.run("LIST ALL");
+  }
+
+  @Benchmark
+  public int listAllLong(LoadedArchive state) throws Throwable {
+    return state.archive.run("LIST ALL LONG");
+  }
+
+  @Benchmark
+  public int listAvailable(LoadedArchive state) throws Throwable {
+    return state.archive.run("LIST AVAILABLE");
+  }
+
+  @Benchmark
+  public int type(LoadedArchive state) throws Throwable {
+    return state.archive.run(state.typeCommand);
+  }
+
+  @Benchmark
+  public int inventor(LoadedArchive state) throws Throwable {
+    return state.archive.run(state.inventorCommand);
+  }
+
+  @Benchmark
+  public int numberCopies(LoadedArchive state) throws Throwable {
+    return state.archive.run("NUMBER COPIES");
+  }
+
+  @Benchmark
+  public int common(LoadedArchive state) throws Throwable {
+    return state.archive.run(state.commonCommand);
+  }
+
+  @Benchmark
+  public int rentRelinquish(LoadedArchive state) throws Throwable {
+    int serialNumber = 1 + state.nextRental++ % state.books;
+    int studentNumber = FIRST_STUDENT_ID + STUDENTS - 1;
+    return state.archive.run("RENT " + studentNumber + " " + serialNumber)
+            + state.archive.run("RELINQUISH " + studentNumber + " " + serialNumber);
+  }
+
+  @Benchmark
+  public int saveCollectionUnchanged(SavedArchive state) throws Throwable {
+    return state.archive.run(state.saveCommand);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public int saveCollectionFull(DeletedSave state) throws Throwable {
+    return state.archive.run(state.saveCommand);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public int saveCollectionOneAdded(OneAddedSave state) throws Throwable {
+    return state.archive.run(state.saveCommand);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public int addCollection(EmptyArchive state) throws Throwable {
+    return state.archive.run(state.addCommand);
+  }
+}
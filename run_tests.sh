@@ -6,28 +6,44 @@ if [ $? -ne 0 ]; then
     exit 1
 fi
 
+# Tests name their csv and batch files relative to the test directory, so they run from there
 TEST_DIR="./tests"
+cd "$TEST_DIR" || exit 1
 pass_count=0
 fail_count=0
 
-for input_file in "$TEST_DIR"/*.in; do
-    base_name=$(basename "$input_file" .in)
-    output_file="$TEST_DIR/$base_name.out"
-    temp_output="temp_$base_name.out"
-
-    java Archive < "$input_file" > "$temp_output"
-
-    if diff -q "$temp_output" "$output_file" > /dev/null; then
-        ((pass_count++))
-    else
-        ((fail_count++))
-        echo "[FAIL] $base_name"
-        diff "$temp_output" "$output_file"
-        echo ""
-    fi
-
-    rm "$temp_output"
+# Every test runs once per storage engine and must print the same output on both
+for engine in "" "--columnar"; do
+    # Journals and snapshots live here, so tests numbered _1, _2, ... can restart on the same state
+    rm -rf temp_state
+    mkdir temp_state
+
+    for input_file in *.in; do
+        base_name=$(basename "$input_file" .in)
+        output_file="$base_name.out"
+        args_file="$base_name.args"
+        temp_output="temp_$base_name.out"
+
+        args=""
+        if [ -f "$args_file" ]; then
+            args=$(cat "$args_file")
+        fi
+
+        java -cp .. Archive $args $engine < "$input_file" > "$temp_output"
+
+        if diff -q "$temp_output" "$output_file" > /dev/null; then
+            ((pass_count++))
+        else
+            ((fail_count++))
+            echo "[FAIL] $base_name $engine"
+            diff "$temp_output" "$output_file"
+            echo ""
+        fi
+
+        rm "$temp_output"
+    done
 done
+rm -rf temp_state
 
 echo "=============================="
 echo "Passed: $pass_count"